@@ -0,0 +1,215 @@
+package analysis;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import enums.*;
+
+/**
+ * Rules of a model, checked in an order that changes while guessing so
+ * that the rules that apply most often are checked first.
+ *
+ * Each rule counts how often it decides a guess. Every so often (at
+ * random, about once every REORDER_INTERVAL guesses) the counts are read
+ * and a rule is moved ahead of the rule before it if it has decided more
+ * guesses and the two rules can't disagree, ie no context is in both
+ * environments or they give the same phoneme. Swapping such rules never
+ * changes which phoneme the first rule that applies gives, so guesses
+ * are the same in any order this makes.
+ *
+ * Each phoneme's rules are replaced as a whole when they are reordered,
+ * so guesses can be made while that happens.
+ */
+class AdaptiveRuleOrder {
+
+	// guesses between reorders, on average (a power of 2)
+	static final int REORDER_INTERVAL = 1 << 12;
+
+	// candidate rules indexed by target phoneme ordinal
+	private final AtomicReferenceArray<Candidates<SpecificRule>> specificRules;
+	private final AtomicReferenceArray<Candidates<GeneralizedRule>> generalRules;
+
+	// held by the thread reordering, others don't wait for it
+	private final AtomicBoolean reordering = new AtomicBoolean();
+
+	/**
+	 * @param phonemeToSpecificRules: specific rules indexed by target
+	 * phoneme ordinal, in precedence order
+	 * @param index: the general rules that apply to each phoneme
+	 */
+	AdaptiveRuleOrder(SpecificRule[][] phonemeToSpecificRules, GeneralRuleIndex index) {
+		PHONEME[] phonemes = PHONEME.values();
+		specificRules = new AtomicReferenceArray<Candidates<SpecificRule>>(phonemes.length);
+		generalRules = new AtomicReferenceArray<Candidates<GeneralizedRule>>(phonemes.length);
+		for (PHONEME p : phonemes) {
+			SpecificRule[] specific = phonemeToSpecificRules[p.ordinal()];
+			PhoneticEnvironment[] environments = new PhoneticEnvironment[specific.length];
+			PHONEME[] outputs = new PHONEME[specific.length];
+			for (int i = 0; i < specific.length; i++) {
+				environments[i] = specific[i].getEnvironment();
+				outputs[i] = specific[i].getActualPhoneme();
+			}
+			specificRules.set(p.ordinal(), new Candidates<SpecificRule>(
+					specific.clone(), environments, outputs, newCounters(specific.length)));
+
+			GeneralizedRule[] general = index.getRules(p);
+			environments = new PhoneticEnvironment[general.length];
+			for (int i = 0; i < general.length; i++) {
+				environments[i] = general[i].getPhoneticEnvironment();
+			}
+			generalRules.set(p.ordinal(), new Candidates<GeneralizedRule>(
+					general.clone(), environments, index.getOutputs(p).clone(),
+					newCounters(general.length)));
+		}
+	}
+
+	private static LongAdder[] newCounters(int count) {
+		LongAdder[] counters = new LongAdder[count];
+		for (int i = 0; i < count; i++) {
+			counters[i] = new LongAdder();
+		}
+		return counters;
+	}
+
+	/**
+	 * Guess how a consonant will be pronounced, same as the model
+	 * does without compiling
+	 * @param targetPhoneme: the consonant
+	 * @param contextId: the context it is in, from PhoneticContext
+	 * @return the guessed phoneme
+	 */
+	PHONEME guessPhoneme(PHONEME targetPhoneme, int contextId) {
+		if ((ThreadLocalRandom.current().nextInt() & (REORDER_INTERVAL - 1)) == 0) {
+			reorder();
+		}
+		PHONEME guess = specificRules.get(targetPhoneme.ordinal()).find(contextId);
+		if (guess == null) {
+			guess = generalRules.get(targetPhoneme.ordinal()).find(contextId);
+		}
+		return guess == null ? targetPhoneme : guess;
+	}
+
+	/**
+	 * Move rules that have decided more guesses ahead, where
+	 * that can't change a guess. Does nothing if another
+	 * thread is already reordering.
+	 */
+	void reorder() {
+		if (!reordering.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			for (int p = 0; p < specificRules.length(); p++) {
+				specificRules.set(p, specificRules.get(p).reordered());
+				generalRules.set(p, generalRules.get(p).reordered());
+			}
+		} finally {
+			reordering.set(false);
+		}
+	}
+
+	/**
+	 * @return the phoneme's specific rules, in the order they are checked
+	 */
+	SpecificRule[] getSpecificRules(PHONEME p) {
+		return specificRules.get(p.ordinal()).rules.clone();
+	}
+
+	/**
+	 * @return the general rules that can change the phoneme,
+	 * in the order they are checked
+	 */
+	GeneralizedRule[] getGeneralRules(PHONEME p) {
+		return generalRules.get(p.ordinal()).rules.clone();
+	}
+
+	/**
+	 * Rules for one phoneme with the environment each applies
+	 * in, the phoneme each gives and how often each has applied
+	 */
+	private static final class Candidates<R> {
+
+		final R[] rules;
+		final PhoneticEnvironment[] environments;
+		final PHONEME[] outputs;
+		final LongAdder[] hits;
+
+		Candidates(R[] rules, PhoneticEnvironment[] environments,
+				PHONEME[] outputs, LongAdder[] hits) {
+			this.rules = rules;
+			this.environments = environments;
+			this.outputs = outputs;
+			this.hits = hits;
+		}
+
+		/**
+		 * @return the phoneme given by the first rule that applies
+		 * to the context, or null if none do
+		 */
+		PHONEME find(int contextId) {
+			for (int i = 0; i < environments.length; i++) {
+				if (environments[i].containsContext(contextId)) {
+					hits[i].increment();
+					return outputs[i];
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * One pass from last to first, so a rule can move all the
+		 * way up in one reorder if nothing ahead of it disagrees
+		 * @return the candidates in their new order, or these
+		 * candidates if nothing moved
+		 */
+		Candidates<R> reordered() {
+			int n = rules.length;
+			long[] counts = new long[n];
+			for (int i = 0; i < n; i++) {
+				counts[i] = hits[i].sum();
+			}
+
+			Candidates<R> moved = null;
+			for (int i = n - 2; i >= 0; i--) {
+				Candidates<R> c = moved == null ? this : moved;
+				if (counts[i + 1] <= counts[i] || !c.canSwap(i, i + 1)) {
+					continue;
+				}
+				if (moved == null) {
+					moved = new Candidates<R>(rules.clone(), environments.clone(),
+							outputs.clone(), hits.clone());
+				}
+				moved.swap(i, i + 1);
+				long count = counts[i];
+				counts[i] = counts[i + 1];
+				counts[i + 1] = count;
+			}
+			return moved == null ? this : moved;
+		}
+
+		/**
+		 * @return true if rules i and j give the same phoneme
+		 * wherever both apply
+		 */
+		private boolean canSwap(int i, int j) {
+			return outputs[i] == outputs[j] ||
+					!environments[i].overlaps(environments[j]);
+		}
+
+		private void swap(int i, int j) {
+			swap(rules, i, j);
+			swap(environments, i, j);
+			swap(outputs, i, j);
+			swap(hits, i, j);
+		}
+
+		private static <T> void swap(T[] array, int i, int j) {
+			T t = array[i];
+			array[i] = array[j];
+			array[j] = t;
+		}
+	}
+
+}
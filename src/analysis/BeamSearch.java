@@ -0,0 +1,165 @@
+package analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import enums.PHONEME;
+
+/**
+ * Finds the most likely pronunciations of a word, rather than the one
+ * given by the first rule that applies to each phoneme.
+ *
+ * Each consonant can become any phoneme a rule that applies to it gives
+ * (or stay the same if none apply), with a probability of that
+ * phoneme's share of the support of those rules. Vowels stay the same.
+ * A pronunciation's probability is the product over its phonemes.
+ *
+ * The pronunciations are built a phoneme at a time, keeping only the
+ * best few so far in a bounded heap (the beam). Since each phoneme's
+ * probabilities don't depend on the others' guesses, the best
+ * pronunciations always grow from the best ones so far, so a beam as
+ * wide as the number of pronunciations wanted finds exactly those.
+ */
+class BeamSearch {
+
+	private static final PHONEME[] PHONEMES = PHONEME.values();
+
+	// worst first, so the head is the one to drop when the beam is full.
+	// equal scores are ranked in the order they were found
+	private static final Comparator<Hypothesis> WORST_FIRST = (a, b) -> {
+		int c = Double.compare(a.score, b.score);
+		return c != 0 ? c : Long.compare(b.sequence, a.sequence);
+	};
+
+	private BeamSearch() {
+	}
+
+	/**
+	 * @param model: the model whose rules give the candidates
+	 * @param buffer: the parsed word (its contexts and guesses are
+	 * overwritten)
+	 * @param count: how many pronunciations to find, at least 1
+	 * @return up to count pronunciations, most likely first
+	 */
+	static List<RankedGuess> guess(GuessingModel model, WordBuffer buffer, int count) {
+		buffer.computeContexts();
+		long[] support = new long[PHONEMES.length];
+		PriorityQueue<Hypothesis> beam = new PriorityQueue<Hypothesis>(count + 1, WORST_FIRST);
+		Hypothesis[] previous = { new Hypothesis(null, null, 0, 0) };
+		long sequence = 1;
+
+		for (int k = 0; k < buffer.length; k++) {
+			PHONEME target = buffer.phonemes[k];
+			PHONEME[] candidates;
+			double[] scores;
+			if (target.isVowel()) {
+				candidates = new PHONEME[] { target };
+				scores = new double[] { 0 };
+			} else {
+				Arrays.fill(support, 0);
+				model.addSupport(target, buffer.contextIds[k], support);
+				candidates = candidates(target, support);
+				scores = scores(candidates, support);
+			}
+
+			// candidates are best first, so once one can't get into
+			// a full beam the rest can't either
+			for (Hypothesis h : previous) {
+				for (int c = 0; c < candidates.length; c++) {
+					double score = h.score + scores[c];
+					if (beam.size() == count && score <= beam.peek().score) {
+						break;
+					}
+					beam.add(new Hypothesis(h, candidates[c], score, sequence++));
+					if (beam.size() > count) {
+						beam.poll();
+					}
+				}
+			}
+			previous = beam.toArray(new Hypothesis[0]);
+			// best first, so later hypotheses are more likely to be cut
+			Arrays.sort(previous, WORST_FIRST.reversed());
+			beam.clear();
+		}
+
+		List<RankedGuess> guesses = new ArrayList<RankedGuess>(previous.length);
+		StringBuilder sb = new StringBuilder();
+		for (Hypothesis h : previous) {
+			int k = buffer.length;
+			for (Hypothesis p = h; p.guess != null; p = p.previous) {
+				buffer.guesses[--k] = p.guess;
+			}
+			sb.setLength(0);
+			buffer.appendGuesses(sb);
+			guesses.add(new RankedGuess(sb.toString(), Math.exp(h.score)));
+		}
+		return guesses;
+	}
+
+	/**
+	 * @return the phonemes with support, most first (the target alone
+	 * if nothing has support, since it stays the same)
+	 */
+	private static PHONEME[] candidates(PHONEME target, long[] support) {
+		int n = 0;
+		for (long s : support) {
+			if (s > 0) {
+				n++;
+			}
+		}
+		if (n == 0) {
+			support[target.ordinal()] = 1;
+			return new PHONEME[] { target };
+		}
+		PHONEME[] candidates = new PHONEME[n];
+		n = 0;
+		for (int i = 0; i < support.length; i++) {
+			if (support[i] > 0) {
+				candidates[n++] = PHONEMES[i];
+			}
+		}
+		// stable, so phonemes with the same support stay in ordinal order
+		Arrays.sort(candidates, (a, b) -> Long.compare(support[b.ordinal()], support[a.ordinal()]));
+		return candidates;
+	}
+
+	/**
+	 * @return the log of each candidate's share of the support
+	 */
+	private static double[] scores(PHONEME[] candidates, long[] support) {
+		long total = 0;
+		for (PHONEME p : candidates) {
+			total += support[p.ordinal()];
+		}
+		double[] scores = new double[candidates.length];
+		for (int c = 0; c < candidates.length; c++) {
+			scores[c] = Math.log((double) support[candidates[c].ordinal()] / total);
+		}
+		return scores;
+	}
+
+	/**
+	 * The guess of a word's first phonemes: the last one's guess,
+	 * linked to the guess of the ones before
+	 */
+	private static final class Hypothesis {
+
+		final Hypothesis previous;
+		final PHONEME guess;
+		// log of the probability
+		final double score;
+		// when it was found, to break ties the same way every time
+		final long sequence;
+
+		Hypothesis(Hypothesis previous, PHONEME guess, double score, long sequence) {
+			this.previous = previous;
+			this.guess = guess;
+			this.score = score;
+			this.sequence = sequence;
+		}
+	}
+
+}
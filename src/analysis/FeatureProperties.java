@@ -2,27 +2,46 @@ package analysis;
 
 import enums.*;
 
-import java.util.HashSet;
-import java.util.Objects;
+import java.util.EnumSet;
 import java.util.Set;
 /**
  * NOT defaulted to be global
  *
+ * Places, manners and voices are packed into a single int: one bit
+ * per PLACE ordinal, followed by one bit per MANNER ordinal, followed
+ * by one bit per VOICE ordinal.
  */
 public class FeatureProperties {
-	Set<PLACE> places;
-	Set<MANNER> manners;
-	Set<VOICE> voices;
-	
+
+	static final int PLACE_SHIFT = 0;
+	static final int MANNER_SHIFT = PLACE_SHIFT + PLACE.values().length;
+	static final int VOICE_SHIFT = MANNER_SHIFT + MANNER.values().length;
+
+	static final int PLACE_MASK = ((1 << PLACE.values().length) - 1) << PLACE_SHIFT;
+	static final int MANNER_MASK = ((1 << MANNER.values().length) - 1) << MANNER_SHIFT;
+	static final int VOICE_MASK = ((1 << VOICE.values().length) - 1) << VOICE_SHIFT;
+
+	private static final PLACE[] PLACES = PLACE.values();
+	private static final MANNER[] MANNERS = MANNER.values();
+	private static final VOICE[] VOICES = VOICE.values();
+
+	private int features;
+
 	public FeatureProperties() {
-		initEmptyMaps();
 	}
-	
+
 	public FeatureProperties(PHONEME p) {
-		initEmptyMaps();
-		add(p);
+		this.features = p.getFeatureCode();
+	}
+
+	/**
+	 * Init from an already packed feature code
+	 * @param featureCode
+	 */
+	public FeatureProperties(int featureCode) {
+		this.features = featureCode;
 	}
-	
+
 	/**
 	 * Init with one of each val
 	 * @param p
@@ -30,110 +49,160 @@ public class FeatureProperties {
 	 * @param v
 	 */
 	public FeatureProperties(PLACE p, MANNER m, VOICE v) {
-		initEmptyMaps();
 		add(p, m, v);
 	}
-	
-	public FeatureProperties(Set<PLACE> places, 
+
+	public FeatureProperties(Set<PLACE> places,
 			Set<MANNER> manners, Set<VOICE> voices) {
-		this.places = places;
-		this.manners = manners;
-		this.voices = voices;
+		for (PLACE p : places) {
+			addPlace(p);
+		}
+		for (MANNER m : manners) {
+			addManner(m);
+		}
+		for (VOICE v : voices) {
+			addVoice(v);
+		}
+	}
+
+	/**
+	 * Pack one of each val into a feature code. Null vals are left out.
+	 * @param p
+	 * @param m
+	 * @param v
+	 * @return the packed code
+	 */
+	public static int encode(PLACE p, MANNER m, VOICE v) {
+		return placeBit(p) | mannerBit(m) | voiceBit(v);
+	}
+
+	private static int placeBit(PLACE p) {
+		return p == null ? 0 : 1 << (PLACE_SHIFT + p.ordinal());
+	}
+
+	private static int mannerBit(MANNER m) {
+		return m == null ? 0 : 1 << (MANNER_SHIFT + m.ordinal());
+	}
+
+	private static int voiceBit(VOICE v) {
+		return v == null ? 0 : 1 << (VOICE_SHIFT + v.ordinal());
+	}
+
+	public int getFeatureCode() {
+		return features;
 	}
 
-	
-	private void initEmptyMaps() {
-		this.places = new HashSet<PLACE>();
-		this.manners = new HashSet<MANNER>();
-		this.voices = new HashSet<VOICE>();
+	/**
+	 * Whether or not every feature of the given code is in these properties
+	 * @param featureCode: packed features, ie from PHONEME.getFeatureCode()
+	 * @return true if this contains all of them
+	 */
+	public boolean containsFeatures(int featureCode) {
+		return (features & featureCode) == featureCode;
 	}
-	
+
 	public void addPlace(PLACE place) {
-		places.add(place);
+		features |= placeBit(place);
 	}
 
 	public void removePlace(PLACE place) {
-		places.remove(place);
+		features &= ~placeBit(place);
 	}
-	
+
 	public Set<PLACE> getPlaces() {
+		Set<PLACE> places = EnumSet.noneOf(PLACE.class);
+		for (PLACE p : PLACE.values()) {
+			if ((features & placeBit(p)) != 0) {
+				places.add(p);
+			}
+		}
 		return places;
 	}
 
 	public PLACE getSinglePlace() {
-		if (places.size() == 0 || places.size() > 1) {
+		return getSinglePlace(features);
+	}
+
+	static PLACE getSinglePlace(int features) {
+		int places = features & PLACE_MASK;
+		if (Integer.bitCount(places) != 1) {
 			throw new IllegalArgumentException("More than one place.");
 		}
 		// there's only one place. return it
-		for (PLACE p : places) {
-			return p;
-		}
-		return null;
+		return PLACES[Integer.numberOfTrailingZeros(places) - PLACE_SHIFT];
 	}
-	
+
 	public void addManner(MANNER manner) {
-		manners.add(manner);
+		features |= mannerBit(manner);
 	}
-	
+
 	public void removeManner(MANNER manner) {
-		manners.remove(manner);
+		features &= ~mannerBit(manner);
 	}
-	
+
 	public Set<MANNER> getManners() {
+		Set<MANNER> manners = EnumSet.noneOf(MANNER.class);
+		for (MANNER m : MANNER.values()) {
+			if ((features & mannerBit(m)) != 0) {
+				manners.add(m);
+			}
+		}
 		return manners;
 	}
-	
+
 	public MANNER getSingleManner() {
-		if (manners.size() == 0 || manners.size() > 1) {
+		return getSingleManner(features);
+	}
+
+	static MANNER getSingleManner(int features) {
+		int manners = features & MANNER_MASK;
+		if (Integer.bitCount(manners) != 1) {
 			throw new IllegalArgumentException("More than one manner.");
 		}
 		// there's only one Manner. return it
-		for (MANNER m : manners) {
-			return m;
-		}
-		return null;
+		return MANNERS[Integer.numberOfTrailingZeros(manners) - MANNER_SHIFT];
 	}
 
 	public void addVoice(VOICE voice) {
-		voices.add(voice);
+		features |= voiceBit(voice);
 	}
 
 	public void removeVoicing(VOICE voice) {
-		voices.remove(voice);
+		features &= ~voiceBit(voice);
 	}
-	
+
 	public Set<VOICE> getVoices() {
+		Set<VOICE> voices = EnumSet.noneOf(VOICE.class);
+		for (VOICE v : VOICE.values()) {
+			if ((features & voiceBit(v)) != 0) {
+				voices.add(v);
+			}
+		}
 		return voices;
 	}
-	
+
 
 	public VOICE getSingleVoice() {
-		if (voices.size() == 0 || voices.size() > 1) {
+		return getSingleVoice(features);
+	}
+
+	static VOICE getSingleVoice(int features) {
+		int voices = features & VOICE_MASK;
+		if (Integer.bitCount(voices) != 1) {
 			throw new IllegalArgumentException("More than one voice.");
 		}
 		// there's only one Voice. return it
-		for (VOICE v : voices) {
-			return v;
-		}
-		return null;
+		return VOICES[Integer.numberOfTrailingZeros(voices) - VOICE_SHIFT];
 	}
-	
+
 	public void add(PLACE p, MANNER m, VOICE v) {
-		if (p != null) {
-			places.add(p);
-		}
-		if (m != null) {
-			manners.add(m);
-		}
-		if (v != null) {
-			voices.add(v);
-		}
+		features |= encode(p, m, v);
 	}
-	
+
 	public void add(PHONEME p) {
-		add(p.getPlace(), p.getManner(), p.getVoice());
+		features |= p.getFeatureCode();
 	}
-	
+
 	/**
 	 * Sets all sets to contain every possibility
 	 */
@@ -142,15 +211,12 @@ public class FeatureProperties {
 		makeMannerGlobal();
 		makeVoiceGlobal();
 	}
-	
+
 	public void makePlaceGlobal() {
 		// places
-		PLACE[] ps = PLACE.values();
-		for (int i = 0; i < ps.length; i++) {
-			places.add((PLACE) ps[i]);
-		}
+		features |= PLACE_MASK;
 	}
-	
+
 	public void makeMannerGlobal() {
 		// manners
 		MANNER[] ms = MANNER.values();
@@ -159,24 +225,20 @@ public class FeatureProperties {
 			if (ms[i].getGroup().equals(GROUP.VOWEL)) {
 				continue;
 			}
-			manners.add((MANNER) ms[i]);
+			features |= mannerBit(ms[i]);
 		}
 	}
-	
+
 	public void makeVoiceGlobal() {
 		// voices
-		VOICE[] vs = VOICE.values();
-		for (int i = 0; i < vs.length; i++) {
-			voices.add((VOICE) vs[i]);
-		}
+		features |= VOICE_MASK;
 	}
-	
+
 	public boolean isGlobal() {
-		return places.size() == PLACE.values().length &&
-				manners.size() == MANNER.values().length &&
-				voices.size() == VOICE.values().length;
+		return (features & (PLACE_MASK | MANNER_MASK | VOICE_MASK))
+				== (PLACE_MASK | MANNER_MASK | VOICE_MASK);
 	}
-	
+
 	@Override
 	/**
 	 * A = B if B's details are exactly A's details
@@ -189,40 +251,38 @@ public class FeatureProperties {
             return false;
         }
         FeatureProperties r = (FeatureProperties) o;
-        return  r.places.equals(places) &&
-        		r.manners.equals(manners) &&
-        		r.voices.equals(voices);
+        return r.features == features;
     }
-	
+
 	@Override
     public int hashCode() {
-        return Objects.hash(places, manners, voices);
+        return features;
     }
-	
+
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
 
 		String gap = "    ";
-		
+
 		sb.append("Places: ");
-		if (places.size() == PLACE.values().length) {
+		if ((features & PLACE_MASK) == PLACE_MASK) {
 			sb.append("(ALL)");
 		}
-		sb.append("\n" + gap + places);
-		
+		sb.append("\n" + gap + getPlaces());
+
 		sb.append("\nManners: ");
-		if (manners.size() == MANNER.values().length) {
+		if ((features & MANNER_MASK) == MANNER_MASK) {
 			sb.append("(ALL)");
 		}
-		sb.append("\n" + gap + manners);
-		
+		sb.append("\n" + gap + getManners());
+
 		sb.append("\nVoices: ");
-		if (voices.size() == VOICE.values().length) {
+		if ((features & VOICE_MASK) == VOICE_MASK) {
 			sb.append("(ALL)");
 		}
-		sb.append("\n" + gap +  voices);
-		
+		sb.append("\n" + gap +  getVoices());
+
 		return sb.toString();
 	}
 }
@@ -0,0 +1,104 @@
+package analysis;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import enums.*;
+
+/**
+ * Inverted index of general rules by the features of their input.
+ *
+ * For each place, manner and voice, the index keeps the set of rules
+ * whose input features include it. A consonant can only be changed by
+ * the rules in all three of its sets, so each consonant gets the
+ * intersection, in rule order, along with the phoneme each of those
+ * rules turns it into (rules that would give a phoneme that doesn't
+ * exist are left out, since they never apply).
+ */
+class GeneralRuleIndex {
+
+	private static final GeneralizedRule[] NO_RULES = new GeneralizedRule[0];
+	private static final PHONEME[] NO_PHONEMES = new PHONEME[0];
+
+	// rules and their outputs, indexed by target phoneme ordinal
+	private final GeneralizedRule[][] phonemeToRules;
+	private final PHONEME[][] phonemeToOutputs;
+
+	/**
+	 * @param rules: the general rules, in the order they are checked
+	 */
+	GeneralRuleIndex(GeneralizedRule[] rules) {
+		// postings: rule indexes for each place/manner/voice
+		BitSet[] places = postings(PLACE.values().length);
+		BitSet[] manners = postings(MANNER.values().length);
+		BitSet[] voices = postings(VOICE.values().length);
+		for (int i = 0; i < rules.length; i++) {
+			int features = rules[i].getInputPhonemeFeatures().getFeatureCode();
+			addPostings(places, i, features, FeatureProperties.PLACE_SHIFT);
+			addPostings(manners, i, features, FeatureProperties.MANNER_SHIFT);
+			addPostings(voices, i, features, FeatureProperties.VOICE_SHIFT);
+		}
+
+		phonemeToRules = new GeneralizedRule[PHONEME.values().length][];
+		phonemeToOutputs = new PHONEME[PHONEME.values().length][];
+		for (PHONEME p : PHONEME.values()) {
+			if (p.isVowel()) {
+				// vowels have no place or manner, so no rule applies
+				phonemeToRules[p.ordinal()] = NO_RULES;
+				phonemeToOutputs[p.ordinal()] = NO_PHONEMES;
+				continue;
+			}
+			BitSet matches = (BitSet) places[p.getPlace().ordinal()].clone();
+			matches.and(manners[p.getManner().ordinal()]);
+			matches.and(voices[p.getVoice().ordinal()]);
+
+			GeneralizedRule[] candidates = new GeneralizedRule[matches.cardinality()];
+			PHONEME[] outputs = new PHONEME[candidates.length];
+			int count = 0;
+			for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+				PHONEME output = GuessingModel.getOutputPhoneme(rules[i], p);
+				if (output != null) {
+					candidates[count] = rules[i];
+					outputs[count] = output;
+					count++;
+				}
+			}
+			phonemeToRules[p.ordinal()] = count == candidates.length
+					? candidates : Arrays.copyOf(candidates, count);
+			phonemeToOutputs[p.ordinal()] = count == outputs.length
+					? outputs : Arrays.copyOf(outputs, count);
+		}
+	}
+
+	private static BitSet[] postings(int count) {
+		BitSet[] postings = new BitSet[count];
+		for (int i = 0; i < count; i++) {
+			postings[i] = new BitSet();
+		}
+		return postings;
+	}
+
+	private static void addPostings(BitSet[] postings, int rule, int features, int shift) {
+		for (int i = 0; i < postings.length; i++) {
+			if ((features & (1 << (shift + i))) != 0) {
+				postings[i].set(rule);
+			}
+		}
+	}
+
+	/**
+	 * @return the rules that apply to p and give a real phoneme,
+	 * in the order they are checked
+	 */
+	GeneralizedRule[] getRules(PHONEME p) {
+		return phonemeToRules[p.ordinal()];
+	}
+
+	/**
+	 * @return the phoneme each of getRules(p) turns p into
+	 */
+	PHONEME[] getOutputs(PHONEME p) {
+		return phonemeToOutputs[p.ordinal()];
+	}
+
+}
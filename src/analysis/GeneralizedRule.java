@@ -1,56 +1,124 @@
 package analysis;
 import java.util.Collection;
-import java.util.Objects;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.Set;
 
 import enums.*;
 
-public class GeneralizedRule {
+/**
+ * Rule that applies to every phoneme with some features.
+ * Rules are immutable, so their hash is worked out once.
+ */
+public final class GeneralizedRule {
 	
-	private FeatureProperties inputPhonemeFeatures;
-	private FeatureProperties outputPhonemeFeatures;
+	// feature codes, see FeatureProperties
+	private final int inputFeatures;
+	private final int outputFeatures;
 	// set of features types that remain the same as the input
 	// phoneme features (place/manner/voice)
-	private Set<FEATURE_TYPE> remainsSame;
+	private final Set<FEATURE_TYPE> remainsSame;
 	
-	private PhoneticEnvironment ruleEnv;
+	private final PhoneticEnvironment ruleEnv;
+
+	// observations of the specific rules it was formed from
+	// (not part of equality)
+	private final int support;
+
+	private final int hash;
+
+	/**
+	 * Order rules are checked in: most specific environment first, then
+	 * the fewest input features, then by feature codes, so the order
+	 * never depends on hashing
+	 */
+	static final Comparator<GeneralizedRule> PRECEDENCE = (a, b) -> {
+		int c = PhoneticEnvironment.compareSpecificity(a.ruleEnv, b.ruleEnv);
+		if (c == 0) {
+			c = Integer.compare(Integer.bitCount(a.inputFeatures),
+					Integer.bitCount(b.inputFeatures));
+		}
+		if (c == 0) {
+			c = Integer.compare(a.inputFeatures, b.inputFeatures);
+		}
+		if (c == 0) {
+			c = Integer.compare(a.outputFeatures, b.outputFeatures);
+		}
+		return c;
+	};
 	
 	/**
-	 * Construct an "empty" generalized rule
+	 * Construct a generalized rule (the features are copied)
 	 * @param inputPhoneme
 	 */
 	public GeneralizedRule(FeatureProperties inputPhonemeFeatures, 
 			FeatureProperties outputPhonemeFeatures, 
 			Set<FEATURE_TYPE> remainsSame, PhoneticEnvironment env) {
+		this(inputPhonemeFeatures, outputPhonemeFeatures, remainsSame, env, 1);
+	}
+
+	/**
+	 * Construct a generalized rule formed from a number of observations
+	 * (the features are copied)
+	 * @param support: how many observations it was formed from
+	 */
+	public GeneralizedRule(FeatureProperties inputPhonemeFeatures, 
+			FeatureProperties outputPhonemeFeatures, 
+			Set<FEATURE_TYPE> remainsSame, PhoneticEnvironment env, int support) {
 		
-		this.inputPhonemeFeatures = inputPhonemeFeatures;
-		this.outputPhonemeFeatures = outputPhonemeFeatures;
-		this.remainsSame = remainsSame;
+		this.support = support;
+		this.inputFeatures = inputPhonemeFeatures.getFeatureCode();
+		this.outputFeatures = outputPhonemeFeatures.getFeatureCode();
+		Set<FEATURE_TYPE> same = EnumSet.noneOf(FEATURE_TYPE.class);
+		same.addAll(remainsSame);
+		this.remainsSame = Collections.unmodifiableSet(same);
 		this.ruleEnv = env;
+
+		// ordinals, so the hash is the same on every run
+		int h = inputFeatures;
+		h = 31 * h + outputFeatures;
+		for (FEATURE_TYPE f : same) {
+			h = 31 * h + f.ordinal();
+		}
+		this.hash = 31 * h + env.hashCode();
 	}
 
 	public FeatureProperties getInputPhonemeFeatures() {
-		return inputPhonemeFeatures;
+		return new FeatureProperties(inputFeatures);
 	}
 	
 	public FeatureProperties getOutputPhonemeFeatures() {
-		return outputPhonemeFeatures;
+		return new FeatureProperties(outputFeatures);
+	}
+
+	int getOutputFeatureCode() {
+		return outputFeatures;
 	}
 	
 	public Set<FEATURE_TYPE> getFeatureTypesThatRemainSame() {
 		return remainsSame;
 	}
-	
-	public void addFeatureTypesThatRemainsSame(FEATURE_TYPE f) {
-		remainsSame.add(f);
-	}
 
 	public PhoneticEnvironment getPhoneticEnvironment() {
 		return ruleEnv;
 	}
 
-	public void setPhoneticEnvironment(PhoneticEnvironment env) {
-		this.ruleEnv = env;
+	/**
+	 * @return how many observations the specific rules it was
+	 * generalized from were formed from, at least 1
+	 */
+	public int getSupport() {
+		return support;
+	}
+
+	/**
+	 * @param env: the environment for the new rule
+	 * @return a rule with the same features and support as this one, in env
+	 */
+	public GeneralizedRule withPhoneticEnvironment(PhoneticEnvironment env) {
+		return new GeneralizedRule(new FeatureProperties(inputFeatures),
+				new FeatureProperties(outputFeatures), remainsSame, env, support);
 	}
 	
 	/**
@@ -60,9 +128,9 @@ public class GeneralizedRule {
 	 * 	input features contain all of p's features
 	 */
 	public boolean appliesToPhoneme(PHONEME p) {
-		return inputPhonemeFeatures.getPlaces().contains(p.getPlace()) &&
-				inputPhonemeFeatures.getManners().contains(p.getManner()) &&
-						inputPhonemeFeatures.getVoices().contains(p.getVoice());
+		// vowels have no place or manner, so never apply
+		return !p.isVowel() &&
+				(inputFeatures & p.getFeatureCode()) == p.getFeatureCode();
 	}
 	
 	/**
@@ -77,9 +145,18 @@ public class GeneralizedRule {
 		return ruleEnv.containsEnvironment(e, ignoreDoesntCome);
 	}
 
+	/**
+	 * Whether or not this rule applies to a single observed context
+	 * @param contextId: the id of the context, from PhoneticContext
+	 * @return true if the rule's environment contains the context
+	 */
+	public boolean appliesToContext(int contextId) {
+		return ruleEnv.containsContext(contextId);
+	}
+
 	@Override
 	/**
-	 * Rule A = Rule B if everything is the same
+	 * Rule A = Rule B if everything is the same (apart from support)
 	 */
     public boolean equals(Object o) {
         if (this == o) {
@@ -89,17 +166,16 @@ public class GeneralizedRule {
             return false;
         }
         GeneralizedRule r = (GeneralizedRule) o;
-        return inputPhonemeFeatures.equals(r.inputPhonemeFeatures) &&
-        		outputPhonemeFeatures.equals(r.outputPhonemeFeatures) &&
+        return hash == r.hash &&
+        		inputFeatures == r.inputFeatures &&
+        		outputFeatures == r.outputFeatures &&
         		remainsSame.equals(r.remainsSame) &&
         		ruleEnv.equals(r.ruleEnv);
     }
 
     @Override
     public int hashCode() {
-        return inputPhonemeFeatures.hashCode() +
-        		outputPhonemeFeatures.hashCode() + Objects.hash(remainsSame)
-        		+ ruleEnv.hashCode();
+        return hash;
     }
     
     @Override
@@ -107,10 +183,10 @@ public class GeneralizedRule {
 		StringBuilder sb = new StringBuilder();
 
 		sb.append("\n***INPUT FEATURES***\n");
-		sb.append(inputPhonemeFeatures.toString());
+		sb.append(getInputPhonemeFeatures().toString());
 
 		sb.append("\n\n***OUTPUT FEATURES***\n");
-		sb.append(outputPhonemeFeatures.toString());
+		sb.append(getOutputPhonemeFeatures().toString());
 
 		sb.append("\n\n***REMAINS SAME***\n");
 		sb.append(remainsSame.toString());
@@ -0,0 +1,179 @@
+package analysis;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread safe, bounded cache of guesses, keyed on the target word as it
+ * was given to the guesser. Words that only differ in case or spacing
+ * are different keys (and only the upper cased one is valid), so
+ * normalize() words typed by hand before guessing them.
+ *
+ * Entries are split across segments that are locked separately, and each
+ * segment evicts its least recently used entry once it is full.
+ */
+public class GuessCache {
+
+	private static final int MAX_SEGMENTS = 16;
+	// smaller segments would evict far from least recently used overall
+	private static final int MIN_SEGMENT_SIZE = 64;
+
+	private final int maximumSize;
+	private final Segment[] segments;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * @param maximumSize: most guesses kept at once
+	 */
+	public GuessCache(int maximumSize) {
+		if (maximumSize < 1) {
+			throw new IllegalArgumentException("Cache must hold at least one guess.");
+		}
+		this.maximumSize = maximumSize;
+		int count = Integer.highestOneBit(Math.max(1,
+				Math.min(MAX_SEGMENTS, maximumSize / MIN_SEGMENT_SIZE)));
+		segments = new Segment[count];
+		for (int i = 0; i < count; i++) {
+			// share the size out so the segments add up to maximumSize
+			segments[i] = new Segment(maximumSize / count
+					+ (i < maximumSize % count ? 1 : 0));
+		}
+	}
+
+	/**
+	 * Normalize a target word: upper cased, with no leading or trailing
+	 * whitespace, and each run of whitespace inside made a single space
+	 * @param word: the target word
+	 * @return the normalized word
+	 */
+	public static String normalize(String word) {
+		if (word == null) {
+			throw new IllegalArgumentException("String cannot be null.");
+		}
+		StringBuilder sb = new StringBuilder(word.length());
+		boolean space = false;
+		for (int i = 0; i < word.length(); i++) {
+			char c = word.charAt(i);
+			if (Character.isWhitespace(c)) {
+				space = sb.length() > 0;
+			} else {
+				if (space) {
+					sb.append(' ');
+					space = false;
+				}
+				sb.append(c);
+			}
+		}
+		return sb.toString().toUpperCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * @param key: a target word
+	 * @return its guess, or null if it isn't cached
+	 */
+	public String get(String key) {
+		String guess = segmentFor(key).get(key);
+		if (guess == null) {
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+		return guess;
+	}
+
+	/**
+	 * @param key: a target word
+	 * @param guess: its guess
+	 */
+	public void put(String key, String guess) {
+		segmentFor(key).put(key, guess);
+	}
+
+	private Segment segmentFor(String key) {
+		int h = key.hashCode();
+		h ^= h >>> 16;
+		return segments[h & (segments.length - 1)];
+	}
+
+	public void clear() {
+		for (Segment s : segments) {
+			s.clear();
+		}
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment s : segments) {
+			size += s.size();
+		}
+		return size;
+	}
+
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "GuessCache: " + size() + "/" + maximumSize + " guesses, "
+				+ getHitCount() + " hits, " + getMissCount() + " misses, "
+				+ getEvictionCount() + " evictions";
+	}
+
+	/**
+	 * Part of the cache, in least to most recently used order
+	 */
+	private class Segment {
+
+		private final LinkedHashMap<String, String> map;
+
+		Segment(final int capacity) {
+			map = new LinkedHashMap<String, String>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+					if (size() > capacity) {
+						evictions.increment();
+						return true;
+					}
+					return false;
+				}
+			};
+		}
+
+		synchronized String get(String key) {
+			return map.get(key);
+		}
+
+		synchronized void put(String key, String guess) {
+			map.put(key, guess);
+		}
+
+		synchronized void clear() {
+			map.clear();
+		}
+
+		synchronized int size() {
+			return map.size();
+		}
+	}
+
+}
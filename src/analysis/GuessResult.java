@@ -0,0 +1,65 @@
+package analysis;
+
+/**
+ * The guess for one target word of a batch, or the reason
+ * it couldn't be guessed
+ */
+public class GuessResult {
+
+	private final String target;
+	private final String guess;
+	private final IllegalArgumentException error;
+
+	private GuessResult(String target, String guess,
+			IllegalArgumentException error) {
+		this.target = target;
+		this.guess = guess;
+		this.error = error;
+	}
+
+	/**
+	 * @param target: the target word
+	 * @param guess: how the child is guessed to pronounce it
+	 * @return a successful result
+	 */
+	public static GuessResult guessed(String target, String guess) {
+		return new GuessResult(target, guess, null);
+	}
+
+	/**
+	 * @param target: the target word
+	 * @param error: why it couldn't be guessed, ie an invalid phoneme
+	 * @return a failed result
+	 */
+	public static GuessResult failed(String target, IllegalArgumentException error) {
+		return new GuessResult(target, null, error);
+	}
+
+	public String getTarget() {
+		return target;
+	}
+
+	/**
+	 * @return the guess, or null if the word couldn't be guessed
+	 */
+	public String getGuess() {
+		return guess;
+	}
+
+	/**
+	 * @return why the word couldn't be guessed, or null if it was
+	 */
+	public IllegalArgumentException getError() {
+		return error;
+	}
+
+	public boolean isGuessed() {
+		return error == null;
+	}
+
+	@Override
+	public String toString() {
+		return target + ": " + (isGuessed() ? guess : error.getMessage());
+	}
+
+}
@@ -0,0 +1,208 @@
+package analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import enums.PHONEME;
+
+/**
+ * Guesses a batch of words from a trie of their phonemes, so that
+ * words starting the same way share the work of guessing their start.
+ *
+ * A phoneme's context only depends on the phonemes up to the one after
+ * it and on where syllables end, so each node of the trie is a phoneme
+ * together with whether it ends its syllable. A phoneme is guessed once
+ * per node it has a child through, and once more if a word ends at it.
+ * The guess so far is kept in one StringBuilder as the trie is walked.
+ *
+ * Words with an empty syllable (ie "K-AE -") are guessed one at a time,
+ * since the syllable changes where the word ends without adding a node.
+ */
+class GuessTrie {
+
+	private static final Node[] NO_CHILDREN = new Node[0];
+	private static final int[] NO_WORDS = new int[0];
+
+	private final GuessingModel model;
+	private final String[] words;
+	private final GuessResult[] results;
+	private final Node root = new Node(null, false);
+
+	private GuessTrie(GuessingModel model, String[] words, GuessResult[] results) {
+		this.model = model;
+		this.words = words;
+		this.results = results;
+	}
+
+	/**
+	 * Guess words, with the same guesses as guessing them one at a time
+	 * @param model: the model to guess with
+	 * @param words: the target words
+	 * @param results: filled with a result for each word, in the same order
+	 */
+	static void guess(GuessingModel model, String[] words, GuessResult[] results) {
+		GuessTrie trie = new GuessTrie(model, words, results);
+		WordBuffer buffer = new WordBuffer();
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < words.length; i++) {
+			try {
+				buffer.parse(words[i]);
+			} catch (IllegalArgumentException e) {
+				results[i] = GuessResult.failed(words[i], e);
+				continue;
+			}
+			if (!trie.add(buffer, i)) {
+				sb.setLength(0);
+				model.guessPronunciation(buffer);
+				buffer.appendGuesses(sb);
+				results[i] = GuessResult.guessed(words[i], sb.toString());
+			}
+		}
+
+		ForkJoinPool.commonPool().invoke(trie.new WalkTask(trie.root));
+	}
+
+	/**
+	 * Add a parsed word to the trie
+	 * @param buffer: the parsed word
+	 * @param word: its index in words
+	 * @return false if it has an empty syllable, so wasn't added
+	 */
+	private boolean add(WordBuffer buffer, int word) {
+		for (int i = 0; i < buffer.syllableCount; i++) {
+			if (buffer.syllableEnds[i] == (i == 0 ? 0 : buffer.syllableEnds[i - 1])) {
+				return false;
+			}
+		}
+		Node node = root;
+		int syllable = 0;
+		for (int k = 0; k < buffer.length; k++) {
+			boolean endsSyllable = k == buffer.syllableEnds[syllable] - 1;
+			if (endsSyllable) {
+				syllable++;
+			}
+			node = node.child(buffer.phonemes[k], endsSyllable);
+		}
+		node.addWord(word);
+		return true;
+	}
+
+	/**
+	 * A phoneme of the words through this node, and whether it
+	 * ends its syllable
+	 */
+	private static final class Node {
+
+		final PHONEME phoneme;
+		final boolean endsSyllable;
+		Node[] children = NO_CHILDREN;
+		int childCount;
+		// indexes of the words that end here
+		int[] words = NO_WORDS;
+		int wordCount;
+
+		Node(PHONEME phoneme, boolean endsSyllable) {
+			this.phoneme = phoneme;
+			this.endsSyllable = endsSyllable;
+		}
+
+		/**
+		 * @return the child for the given phoneme, added if there isn't one
+		 */
+		Node child(PHONEME p, boolean endsSyllable) {
+			for (int i = 0; i < childCount; i++) {
+				Node child = children[i];
+				if (child.phoneme == p && child.endsSyllable == endsSyllable) {
+					return child;
+				}
+			}
+			if (childCount == children.length) {
+				children = Arrays.copyOf(children, Math.max(2, childCount * 2));
+			}
+			Node child = new Node(p, endsSyllable);
+			children[childCount++] = child;
+			return child;
+		}
+
+		void addWord(int word) {
+			if (wordCount == words.length) {
+				words = Arrays.copyOf(words, Math.max(1, wordCount * 2));
+			}
+			words[wordCount++] = word;
+		}
+	}
+
+	/**
+	 * Guesses the words under a node. The words under each of the
+	 * root's children (ie each phoneme words start with) are guessed
+	 * by a task of their own.
+	 */
+	private class WalkTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Node start;
+		// the guess of the phonemes above the current node
+		private final StringBuilder sb = new StringBuilder();
+
+		WalkTask(Node start) {
+			this.start = start;
+		}
+
+		@Override
+		protected void compute() {
+			if (start != root) {
+				walk(start, null, true, false);
+				return;
+			}
+			List<WalkTask> tasks = new ArrayList<WalkTask>(root.childCount);
+			for (int i = 0; i < root.childCount; i++) {
+				tasks.add(new WalkTask(root.children[i]));
+			}
+			invokeAll(tasks);
+		}
+
+		/**
+		 * Guess the words through a node
+		 * @param node: the node
+		 * @param previous: the phoneme before it, or null at the root
+		 * @param startsSyllable: whether its phoneme starts a syllable
+		 * @param pastBeginning: whether a phoneme before it doesn't
+		 * start its syllable
+		 */
+		private void walk(Node node, PHONEME previous,
+				boolean startsSyllable, boolean pastBeginning) {
+			pastBeginning |= !startsSyllable;
+			int length = sb.length();
+
+			// words that end here
+			if (node.wordCount > 0) {
+				PHONEME guess = model.guessPhoneme(node.phoneme,
+						PhoneticContext.getContextId(pastBeginning, startsSyllable,
+								true, true, previous, null));
+				sb.append(guess.name());
+				String guessed = sb.toString();
+				for (int i = 0; i < node.wordCount; i++) {
+					int word = node.words[i];
+					results[word] = GuessResult.guessed(words[word], guessed);
+				}
+				sb.setLength(length);
+			}
+
+			// words that go on, with the phoneme guessed knowing what's next
+			for (int i = 0; i < node.childCount; i++) {
+				Node child = node.children[i];
+				PHONEME guess = model.guessPhoneme(node.phoneme,
+						PhoneticContext.getContextId(pastBeginning, startsSyllable,
+								node.endsSyllable, false, previous, child.phoneme));
+				sb.append(guess.name()).append(node.endsSyllable ? ' ' : '-');
+				walk(child, node.phoneme, node.endsSyllable, pastBeginning);
+				sb.setLength(length);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,445 @@
+package analysis;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntBinaryOperator;
+
+import enums.*;
+
+/**
+ * An immutable snapshot of a trained model: the general rules and the
+ * specific rules for each phoneme. Rules are immutable, and the
+ * collections holding them are copied when the model is made, so
+ * retraining afterwards doesn't change it.
+ *
+ * State derived from the rules (the compiled PredictionTable and the
+ * syllable memo) belongs to the model too, so it is thrown away with it.
+ */
+public final class GuessingModel {
+
+	private static final PHONEME[] PHONEMES = PHONEME.values();
+	private static final int MANNER_COUNT = MANNER.values().length;
+	private static final int VOICE_COUNT = VOICE.values().length;
+
+	// consonants indexed by (place, manner, voice) ordinals,
+	// null where no phoneme has those features
+	private static final PHONEME[] FEATURES_TO_PHONEME =
+			new PHONEME[PLACE.values().length * MANNER.values().length
+			            * VOICE.values().length];
+	static {
+		for (PHONEME p : PHONEME.values()) {
+			// don't add vowels
+			if (p.getGroup().equals(GROUP.VOWEL)) {
+				continue;
+			}
+			FEATURES_TO_PHONEME[featuresIndex(p.getPlace(), 
+					p.getManner(), p.getVoice())] = p;
+		}
+	}
+
+	private static final SpecificRule[] NO_SPECIFIC_RULES = new SpecificRule[0];
+
+	private final GeneralizedRule[] rules;
+	// general rules that can apply to each phoneme
+	private final GeneralRuleIndex generalRuleIndex;
+	// specific rules indexed by target phoneme ordinal
+	private final SpecificRule[][] phonemeToSpecificRules;
+	// every guess, once compile() has been called
+	private volatile PredictionTable predictionTable;
+	// guesses of syllables already seen
+	private final SyllableMemo syllableMemo = new SyllableMemo();
+	// rules reordered by how often they apply, null unless turned on
+	private volatile AdaptiveRuleOrder adaptiveOrder;
+	// the rules as a class of their own, null until specialize() is called
+	private volatile IntBinaryOperator specializedRules;
+
+	/**
+	 * Snapshot the given rules
+	 * @param generalRules: general rules
+	 * @param phonemeToSpecificRules: specific rules for each phoneme
+	 * (within each kind, rules are checked most specific environment first)
+	 */
+	public GuessingModel(Collection<GeneralizedRule> generalRules,
+			Map<PHONEME, Set<SpecificRule>> phonemeToSpecificRules) {
+		// rules are checked most specific first, so sort them once
+		this.rules = generalRules.toArray(new GeneralizedRule[0]);
+		Arrays.sort(rules, GeneralizedRule.PRECEDENCE);
+		this.generalRuleIndex = new GeneralRuleIndex(rules);
+		this.phonemeToSpecificRules = new SpecificRule[PHONEME.values().length][];
+		for (PHONEME p : PHONEME.values()) {
+			Set<SpecificRule> specificRules = phonemeToSpecificRules.get(p);
+			SpecificRule[] sorted = specificRules == null
+					? NO_SPECIFIC_RULES
+					: specificRules.toArray(NO_SPECIFIC_RULES);
+			Arrays.sort(sorted, SpecificRule.PRECEDENCE);
+			this.phonemeToSpecificRules[p.ordinal()] = sorted;
+		}
+	}
+
+	/**
+	 * Turn adaptive ordering on or off. While it is on, each rule counts
+	 * how often it decides a guess, and rules that decide more are moved
+	 * ahead of rules they can never disagree with (see AdaptiveRuleOrder),
+	 * so the rules that fire on most words are found sooner. Guesses are
+	 * the same either way. It has no effect once the model is compiled,
+	 * since rules aren't checked then.
+	 * @param adaptive: whether rules should be reordered
+	 */
+	public synchronized void setAdaptiveOrdering(boolean adaptive) {
+		if (!adaptive) {
+			adaptiveOrder = null;
+		} else if (adaptiveOrder == null) {
+			adaptiveOrder = new AdaptiveRuleOrder(phonemeToSpecificRules, generalRuleIndex);
+		}
+	}
+
+	public boolean isAdaptiveOrdering() {
+		return adaptiveOrder != null;
+	}
+
+	/**
+	 * Reorder the rules by how often they have decided a guess now,
+	 * rather than at the next random reorder while guessing. Does
+	 * nothing unless adaptive ordering is on.
+	 */
+	public void reorderRules() {
+		AdaptiveRuleOrder order = adaptiveOrder;
+		if (order != null) {
+			order.reorder();
+		}
+	}
+
+	/**
+	 * @param p: the target phoneme
+	 * @return its specific rules, in the order they are checked
+	 */
+	public List<SpecificRule> getSpecificRules(PHONEME p) {
+		AdaptiveRuleOrder order = adaptiveOrder;
+		return Collections.unmodifiableList(Arrays.asList(order != null
+				? order.getSpecificRules(p) : phonemeToSpecificRules[p.ordinal()]));
+	}
+
+	/**
+	 * @param p: the target phoneme
+	 * @return the general rules that can turn it into another
+	 * phoneme, in the order they are checked
+	 */
+	public List<GeneralizedRule> getGeneralizedRules(PHONEME p) {
+		AdaptiveRuleOrder order = adaptiveOrder;
+		return Collections.unmodifiableList(Arrays.asList(order != null
+				? order.getGeneralRules(p) : generalRuleIndex.getRules(p)));
+	}
+
+	/**
+	 * Make a class just for this model's rules (see RuleSpecializer) and
+	 * guess with it from now on, unless the model is compiled. The rules
+	 * never change, so the JIT can compile them as straight-line code.
+	 * This is for models that guess for a long time without being
+	 * compiled. Guesses are the same either way.
+	 * It needs the system Java compiler, from the jdk.compiler module, at
+	 * runtime. Without it (ie on a JRE, like the packaged JavaFX app) it
+	 * does nothing and returns false.
+	 * @return true if the model guesses with specialized rules
+	 * @throws IllegalStateException if the rules' class doesn't compile or
+	 * load, which is a bug in RuleSpecializer
+	 */
+	public synchronized boolean specialize() {
+		if (specializedRules == null) {
+			specializedRules = RuleSpecializer.specialize(
+					phonemeToSpecificRules, generalRuleIndex);
+		}
+		return specializedRules != null;
+	}
+
+	public boolean isSpecialized() {
+		return specializedRules != null;
+	}
+
+	/**
+	 * @return the compiled table, or null if compile() hasn't been called
+	 */
+	public PredictionTable getPredictionTable() {
+		return predictionTable;
+	}
+
+	/**
+	 * Compile the rules into a PredictionTable, so that every later guess
+	 * is one array read per phoneme. Guesses are the same either way, so
+	 * a model can be compiled while it is in use.
+	 * @return the compiled table
+	 */
+	public PredictionTable compile() {
+		PredictionTable table = predictionTable;
+		if (table != null) {
+			return table;
+		}
+
+		byte[] guesses = new byte[PhoneticContext.CONSONANT_COUNT
+		                          * PhoneticContext.CONTEXT_COUNT];
+
+		// guess every consonant in every context, a block of
+		// contexts at a time against all of its rules
+		RuleMatrix matrix = new RuleMatrix(phonemeToSpecificRules, generalRuleIndex);
+		int[] contextIds = new int[PhoneticContext.CONTEXT_COUNT];
+		for (int contextId = 0; contextId < contextIds.length; contextId++) {
+			contextIds[contextId] = contextId;
+		}
+		long[] placements = new long[RuleMatrix.BLOCK_SIZE];
+		long[] comesAfter = new long[RuleMatrix.BLOCK_SIZE];
+		long[] comesBefore = new long[RuleMatrix.BLOCK_SIZE];
+		long[] work = new long[RuleMatrix.BLOCK_SIZE];
+		for (int from = 0; from < contextIds.length; from += RuleMatrix.BLOCK_SIZE) {
+			int count = Math.min(RuleMatrix.BLOCK_SIZE, contextIds.length - from);
+			RuleMatrix.fillContexts(contextIds, from, count,
+					placements, comesAfter, comesBefore);
+			for (int c = 0; c < PhoneticContext.CONSONANT_COUNT; c++) {
+				matrix.guess(c, placements, comesAfter, comesBefore,
+						count, work, guesses, PredictionTable.index(c, from));
+			}
+		}
+
+		table = new PredictionTable(guesses);
+		predictionTable = table;
+		return table;
+	}
+
+	private static int featuresIndex(PLACE p, MANNER m, VOICE v) {
+		return (p.ordinal() * MANNER_COUNT + m.ordinal())
+				* VOICE_COUNT + v.ordinal();
+	}
+
+	/**
+	 * Get the consonant with exactly the given features
+	 * @param p: place
+	 * @param m: manner
+	 * @param v: voice
+	 * @return the phoneme, or null if no phoneme has these features
+	 */
+	static PHONEME getPhonemeForFeatures(PLACE p, MANNER m, VOICE v) {
+		return FEATURES_TO_PHONEME[featuresIndex(p, m, v)];
+	}
+
+	/**
+	 * Guess every phoneme of a parsed word. Syllables already guessed
+	 * in the same surroundings are copied from the memo.
+	 * @param buffer: the parsed word, which gets its guesses filled
+	 * (and its contexts, if any syllable is new)
+	 */
+	void guessPronunciation(WordBuffer buffer) {
+		PHONEME[] phonemes = buffer.phonemes;
+		int[] contextIds = buffer.contextIds;
+		PHONEME[] guesses = buffer.guesses;
+		boolean contextsComputed = false;
+
+		// the word position stays at the beginning until
+		// a syllable has more than one phoneme
+		boolean beginsWord = true;
+		int start = 0;
+		for (int i = 0; i < buffer.syllableCount; i++) {
+			int end = buffer.syllableEnds[i];
+			long key = SyllableMemo.key(phonemes, buffer.length, start, end,
+					beginsWord, i == buffer.syllableCount - 1);
+
+			if (key == SyllableMemo.NO_KEY || !syllableMemo.get(key, guesses, start, end)) {
+				if (!contextsComputed) {
+					buffer.computeContexts();
+					contextsComputed = true;
+				}
+				for (int k = start; k < end; k++) {
+					guesses[k] = guessPhoneme(phonemes[k], contextIds[k]);
+				}
+				if (key != SyllableMemo.NO_KEY) {
+					syllableMemo.put(key, guesses, start, end);
+				}
+			}
+
+			if (end - start > 1) {
+				beginsWord = false;
+			}
+			start = end;
+		}
+	}
+
+	/**
+	 * Guess how a single phoneme will be pronounced
+	 * @param targetPhoneme: the phoneme the child will try to say
+	 * @param contextId: the context it is in, from PhoneticContext
+	 * @return the guessed phoneme
+	 */
+	PHONEME guessPhoneme(PHONEME targetPhoneme, int contextId) {
+
+		// if the rules have been compiled, look the guess up
+		PredictionTable table = predictionTable;
+		if (table != null) {
+			return table.getGuess(targetPhoneme, contextId);
+		}
+
+		// If input phoneme is a vowel, return input phoneme
+		if (targetPhoneme.getGroup().equals(GROUP.VOWEL)) {
+			return targetPhoneme;
+		}
+
+		// if the rules have been specialized, check them that way
+		IntBinaryOperator specialized = specializedRules;
+		if (specialized != null) {
+			return PHONEMES[specialized.applyAsInt(targetPhoneme.ordinal(), contextId)];
+		}
+
+		// if rules are being reordered, check them in their current order
+		AdaptiveRuleOrder order = adaptiveOrder;
+		if (order != null) {
+			return order.guessPhoneme(targetPhoneme, contextId);
+		}
+
+		// if there is a specific rule for this phoneme in this
+		// environment, follow the specific rule.
+
+		SpecificRule specificR = 
+				getSpecificRuleForPhonemeAndEnvironment(targetPhoneme, contextId);
+		if (specificR != null) {
+			// specific rule was found. add the transformation
+			return specificR.getActualPhoneme();
+		}
+
+		// no specific rule, so get general rule that can 
+		// apply for this phoneme/environment
+
+		PHONEME transformToPhoneme = 
+				getTransformationPhonemeFromGeneralizedRuleForPhonemeAndEnvironment(
+						targetPhoneme, contextId);
+
+		if (transformToPhoneme == null) {
+			// this phoneme doesn't exist. don't transform
+			return targetPhoneme;
+		}
+		// this phoneme exists. transform it
+		return transformToPhoneme;
+	}
+
+	/**
+	 * Add up the support of every rule that applies to a consonant in a
+	 * context (specific and general, not just the first), by the phoneme
+	 * each gives
+	 * @param targetPhoneme: the consonant
+	 * @param contextId: the context it is in, from PhoneticContext
+	 * @param support: indexed by phoneme ordinal, gets each rule's
+	 * support added to the phoneme it gives
+	 */
+	void addSupport(PHONEME targetPhoneme, int contextId, long[] support) {
+		for (SpecificRule r : phonemeToSpecificRules[targetPhoneme.ordinal()]) {
+			if (r.appliesToContext(contextId)) {
+				support[r.getActualPhoneme().ordinal()] += r.getSupport();
+			}
+		}
+		GeneralizedRule[] candidates = generalRuleIndex.getRules(targetPhoneme);
+		PHONEME[] outputs = generalRuleIndex.getOutputs(targetPhoneme);
+		for (int i = 0; i < candidates.length; i++) {
+			if (candidates[i].appliesToContext(contextId)) {
+				support[outputs[i].ordinal()] += candidates[i].getSupport();
+			}
+		}
+	}
+
+	/**
+	 * Helper to get a phoneme from a generalized rule
+	 *  applicable to the given phoneme and environment
+	 * @param p: the phoneme
+	 * @param contextId: the environment, from PhoneticContext
+	 * @return: the phoneme given by rule that applies, or null if none do
+	 */
+	private PHONEME 
+		getTransformationPhonemeFromGeneralizedRuleForPhonemeAndEnvironment
+		(PHONEME targetPhoneme, int contextId) {
+		
+		// loop through the rules that can apply to this phoneme
+		// (and give a real phoneme)
+		GeneralizedRule[] candidates = generalRuleIndex.getRules(targetPhoneme);
+		for (int i = 0; i < candidates.length; i++) {
+
+			// if this rule applies to the given environment
+			if (candidates[i].appliesToContext(contextId)) {
+				return generalRuleIndex.getOutputs(targetPhoneme)[i];
+			}
+
+		}
+
+		// no rule applied, return null
+		return null;
+	}
+
+	/**
+	 * Helper to get the phoneme a generalized rule
+	 * transforms the given phoneme into
+	 * @param r: the rule
+	 * @param targetPhoneme: the phoneme
+	 * @return the transformed phoneme, or null if no phoneme
+	 * has the transformed features
+	 */
+	static PHONEME getOutputPhoneme(GeneralizedRule r, PHONEME targetPhoneme) {
+		PLACE transformsToPlace = null;
+		MANNER transformsToManner = null;
+		VOICE transformsToVoice = null;
+
+		Set<FEATURE_TYPE> remainsSame = 
+				r.getFeatureTypesThatRemainSame();
+
+		int outputFeatures = r.getOutputFeatureCode();
+
+		// if place remains same, dont change it.
+		// otherwise, transform it
+		if (remainsSame.contains(FEATURE_TYPE.PLACE)) {
+			transformsToPlace = targetPhoneme.getPlace();
+		} else {
+			transformsToPlace = FeatureProperties.getSinglePlace(outputFeatures);
+		}
+
+		// if manner remains same, dont change it.
+		// otherwise, transform it
+		if (remainsSame.contains(FEATURE_TYPE.MANNER)) {
+			transformsToManner = targetPhoneme.getManner();
+		} else {
+			transformsToManner = FeatureProperties.getSingleManner(outputFeatures);
+		}
+
+		// if voice remains same, dont change it.
+		// otherwise, transform it
+		if (remainsSame.contains(FEATURE_TYPE.VOICE)) {
+			transformsToVoice = targetPhoneme.getVoice();
+		} else {
+			transformsToVoice = FeatureProperties.getSingleVoice(outputFeatures);
+		}
+
+		// check if this phoneme exists
+		return getPhonemeForFeatures(
+				transformsToPlace, transformsToManner, transformsToVoice);
+	}
+
+	/**
+	 * Helper to get a rule applicable to the given phoneme and environment
+	 * @param p: the phoneme
+	 * @param contextId: the environment, from PhoneticContext
+	 * @return: the rule that applies, or null if none do
+	 */
+	private SpecificRule 
+	getSpecificRuleForPhonemeAndEnvironment(PHONEME p, int contextId) {
+
+		// loop through all rules
+		for (SpecificRule r : phonemeToSpecificRules[p.ordinal()]) {
+
+			// if this rule applies to the given phoneme and given environment
+			if (r.appliesToContext(contextId)) {
+				
+				return r;
+			}
+
+		}
+
+		// no rule applied, return null
+		return null;
+	}
+
+}
@@ -0,0 +1,304 @@
+package analysis;
+
+import helpers.Helpers;
+
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import enums.*;
+
+/**
+ * Counts of how often each target consonant was pronounced as each
+ * phoneme in each context, as a cube indexed by (target phoneme, actual
+ * phoneme, context id). Training only increments counts, so it never
+ * goes through the rules, and the same specific rules as
+ * SpecificRuleFormer (with the same support) are worked out afterwards.
+ *
+ * SpecificRuleFormer changes a rule's environment on every observation
+ * of its target: the aspects of the context (its word, syllable and vowel
+ * positions and the consonants around it) are added if the rule gives
+ * the actual phoneme, and removed if it doesn't. So an aspect of a rule
+ * ends up the way the last observation with that aspect left it, unless
+ * the rule was made after that. Along with the counts, the cube keeps
+ * the last observation of each aspect for each target, and when each
+ * rule was made, which is all that is needed to work out the rules.
+ *
+ * A slice of counts (one per context) is only allocated for pairs of
+ * phonemes that have been observed. The counts can be read back for
+ * analysis, ie how often K was said as T at the start of a word.
+ */
+public class ObservationCube {
+
+	private static final PHONEME[] PHONEMES = PHONEME.values();
+	private static final int PHONEME_COUNT = PHONEMES.length;
+
+	// where each kind of aspect starts among a target's aspects, as
+	// the bit of the aspect in the rule's mask (see PhoneticEnvironment)
+	private static final int WORD_ASPECTS = 0;
+	private static final int SYLLABLE_ASPECTS = Integer.SIZE;
+	private static final int VOWEL_ASPECTS = 2 * Integer.SIZE;
+	private static final int AFTER_ASPECTS = 3 * Integer.SIZE;
+	private static final int BEFORE_ASPECTS = AFTER_ASPECTS + Long.SIZE;
+	private static final int ASPECT_COUNT = BEFORE_ASPECTS + Long.SIZE;
+
+	// counts indexed by target ordinal * PHONEME_COUNT + actual
+	// ordinal, then context id (null until the pair is observed)
+	private final int[][] counts = new int[PHONEME_COUNT * PHONEME_COUNT][];
+	// total of each slice
+	private final int[] totals = new int[PHONEME_COUNT * PHONEME_COUNT];
+
+	// observations are numbered from 1, in the order they were added
+	private int observationCount;
+	// for each pair, the first observation of it and its context
+	private final int[] firstObservations = new int[PHONEME_COUNT * PHONEME_COUNT];
+	private final int[] firstContexts = new int[PHONEME_COUNT * PHONEME_COUNT];
+	// for each target, its first observation and how it was pronounced
+	private final int[] targetFirstObservations = new int[PHONEME_COUNT];
+	private final PHONEME[] targetFirstActuals = new PHONEME[PHONEME_COUNT];
+	// indexed by target ordinal, then aspect: the last observation with
+	// the aspect, and the ordinal of how the target was pronounced in it
+	private final int[][] lastObservations = new int[PHONEME_COUNT][];
+	private final byte[][] lastActuals = new byte[PHONEME_COUNT][];
+
+	/**
+	 * Start with no observations
+	 */
+	public ObservationCube() {
+	}
+
+	/**
+	 * Count every consonant of a training map, in its iteration order
+	 * @param map: maps target words to pronunciation
+	 */
+	public ObservationCube(Map<String, String> map) {
+		if (map == null) {
+			throw new IllegalArgumentException("Map cannot be null");
+		}
+		for (Entry<String, String> e : map.entrySet()) {
+			addObservation(e.getKey(), e.getValue());
+		}
+	}
+
+	/**
+	 * Count every consonant of a target word and how the child
+	 * pronounced it
+	 * @param target: the target word, ie P-AA-R K-ER
+	 * @param actual: how the child pronounced it, with the same syllables
+	 * and phonemes per syllable
+	 * @throws IllegalArgumentException if a phoneme isn't valid
+	 */
+	public void addObservation(String target, String actual) {
+		PhonemeSequence[] targetSyllables =
+				Helpers.convertStringToPhonemeSequence(target.toUpperCase(Locale.ENGLISH));
+		PhonemeSequence[] actualSyllables =
+				Helpers.convertStringToPhonemeSequence(actual.toUpperCase(Locale.ENGLISH));
+		SpecificRuleFormer.checkSyllables(targetSyllables, actualSyllables);
+
+		int[] contextIds = PhoneticContext.getContextIds(targetSyllables);
+		int k = 0;
+		for (int i = 0; i < targetSyllables.length; i++) {
+			List<PHONEME> actualPhonemeSeq = actualSyllables[i].getSequence();
+			int j = 0;
+			for (PHONEME targetPhoneme : targetSyllables[i].getSequence()) {
+				// vowels aren't trained on
+				if (!targetPhoneme.getGroup().equals(GROUP.VOWEL)) {
+					add(targetPhoneme, actualPhonemeSeq.get(j), contextIds[k]);
+				}
+				j++;
+				k++;
+			}
+		}
+	}
+
+	/**
+	 * Count one observation of a consonant
+	 * @param targetPhoneme: the consonant
+	 * @param actualPhoneme: how the child pronounced it
+	 * @param contextId: the context it was in, from PhoneticContext
+	 */
+	public void add(PHONEME targetPhoneme, PHONEME actualPhoneme, int contextId) {
+		if (targetPhoneme.isVowel()) {
+			throw new IllegalArgumentException(targetPhoneme + " is a vowel");
+		}
+		int observation = ++observationCount;
+		int t = targetPhoneme.ordinal();
+		int pair = t * PHONEME_COUNT + actualPhoneme.ordinal();
+
+		int[] slice = counts[pair];
+		if (slice == null) {
+			slice = new int[PhoneticContext.CONTEXT_COUNT];
+			counts[pair] = slice;
+			firstObservations[pair] = observation;
+			firstContexts[pair] = contextId;
+		}
+		slice[contextId]++;
+		totals[pair]++;
+
+		int[] last = lastObservations[t];
+		byte[] lastActual = lastActuals[t];
+		if (last == null) {
+			targetFirstObservations[t] = observation;
+			targetFirstActuals[t] = actualPhoneme;
+			last = new int[ASPECT_COUNT];
+			lastActual = new byte[ASPECT_COUNT];
+			lastObservations[t] = last;
+			lastActuals[t] = lastActual;
+		}
+		byte actual = (byte) actualPhoneme.ordinal();
+		// a context always has a word and syllable position, but may
+		// have no vowel or consonant around it
+		int aspect = WORD_ASPECTS +
+				Integer.numberOfTrailingZeros(PhoneticContext.getWordPlacementBit(contextId));
+		last[aspect] = observation;
+		lastActual[aspect] = actual;
+		aspect = SYLLABLE_ASPECTS +
+				Integer.numberOfTrailingZeros(PhoneticContext.getSyllablePlacementBit(contextId));
+		last[aspect] = observation;
+		lastActual[aspect] = actual;
+		int vowel = PhoneticContext.getVowelPlacementBit(contextId);
+		if (vowel != 0) {
+			aspect = VOWEL_ASPECTS + Integer.numberOfTrailingZeros(vowel);
+			last[aspect] = observation;
+			lastActual[aspect] = actual;
+		}
+		long after = PhoneticContext.getComesAfterBit(contextId);
+		if (after != 0) {
+			aspect = AFTER_ASPECTS + Long.numberOfTrailingZeros(after);
+			last[aspect] = observation;
+			lastActual[aspect] = actual;
+		}
+		long before = PhoneticContext.getComesBeforeBit(contextId);
+		if (before != 0) {
+			aspect = BEFORE_ASPECTS + Long.numberOfTrailingZeros(before);
+			last[aspect] = observation;
+			lastActual[aspect] = actual;
+		}
+	}
+
+	/**
+	 * @return how many consonants have been observed
+	 */
+	public int getObservationCount() {
+		return observationCount;
+	}
+
+	/**
+	 * @return how often the target was pronounced as the actual
+	 * phoneme in the context
+	 */
+	public int getCount(PHONEME targetPhoneme, PHONEME actualPhoneme, int contextId) {
+		int[] slice = counts[targetPhoneme.ordinal() * PHONEME_COUNT + actualPhoneme.ordinal()];
+		return slice == null ? 0 : slice[contextId];
+	}
+
+	/**
+	 * @return how often the target was pronounced as the actual
+	 * phoneme in any context
+	 */
+	public int getCount(PHONEME targetPhoneme, PHONEME actualPhoneme) {
+		return totals[targetPhoneme.ordinal() * PHONEME_COUNT + actualPhoneme.ordinal()];
+	}
+
+	/**
+	 * Work out the specific rules, the same as SpecificRuleFormer forms
+	 * from the same observations in the same order
+	 * @return the rules for each target phoneme that has been observed
+	 */
+	public Map<PHONEME, Set<SpecificRule>> getPhonemeToSpecificRules() {
+		Map<PHONEME, Set<SpecificRule>> phonemeToRules =
+				new EnumMap<PHONEME, Set<SpecificRule>>(PHONEME.class);
+		for (PHONEME target : PHONEMES) {
+			if (lastObservations[target.ordinal()] == null) {
+				continue;
+			}
+			Set<SpecificRule> rules = new HashSet<SpecificRule>();
+			for (PHONEME actual : PHONEMES) {
+				SpecificRule r = getRule(target, actual);
+				if (r != null) {
+					rules.add(r);
+				}
+			}
+			phonemeToRules.put(target, rules);
+		}
+		return phonemeToRules;
+	}
+
+	/**
+	 * @return every specific rule, see getPhonemeToSpecificRules()
+	 */
+	public Set<SpecificRule> getRules() {
+		Set<SpecificRule> rules = new HashSet<SpecificRule>();
+		for (Set<SpecificRule> rs : getPhonemeToSpecificRules().values()) {
+			rules.addAll(rs);
+		}
+		return rules;
+	}
+
+	/**
+	 * @return the rule from the target to the actual phoneme, or null if
+	 * there isn't one (a target only gets a rule to itself if it was
+	 * first pronounced correctly)
+	 */
+	private SpecificRule getRule(PHONEME target, PHONEME actual) {
+		int t = target.ordinal();
+		int pair = t * PHONEME_COUNT + actual.ordinal();
+		int made = firstObservations[pair];
+		if (made == 0 || (target == actual && targetFirstActuals[t] != target)) {
+			return null;
+		}
+
+		// the rule's environment when it was made: global for the target's
+		// first observation, else the context it was made for (next to
+		// any consonant)
+		PhoneticEnvironment e = made == targetFirstObservations[t]
+				? new PhoneticEnvironment(true)
+				: new PhoneticEnvironment.Builder(false)
+						.addContext(firstContexts[pair])
+						.makeComesBeforeAndAfterGlobal().build();
+		int word = e.wordPlacement;
+		int syllable = e.syllablePlacement;
+		int vowel = e.vowelPlacement;
+		long after = e.comesAfterPhonemes;
+		long before = e.comesBeforePhonemes;
+
+		// then each aspect observed since is as the last observation left it
+		int[] last = lastObservations[t];
+		byte[] lastActual = lastActuals[t];
+		byte a = (byte) actual.ordinal();
+		for (int aspect = 0; aspect < ASPECT_COUNT; aspect++) {
+			if (last[aspect] <= made) {
+				continue;
+			}
+			boolean add = lastActual[aspect] == a;
+			if (aspect < SYLLABLE_ASPECTS) {
+				word = setBit(word, aspect - WORD_ASPECTS, add);
+			} else if (aspect < VOWEL_ASPECTS) {
+				syllable = setBit(syllable, aspect - SYLLABLE_ASPECTS, add);
+			} else if (aspect < AFTER_ASPECTS) {
+				vowel = setBit(vowel, aspect - VOWEL_ASPECTS, add);
+			} else if (aspect < BEFORE_ASPECTS) {
+				after = setBit(after, aspect - AFTER_ASPECTS, add);
+			} else {
+				before = setBit(before, aspect - BEFORE_ASPECTS, add);
+			}
+		}
+
+		// each observation of the pair made or added to the rule
+		return new SpecificRule(new PhoneticEnvironment(word, syllable, vowel, after, before),
+				target, actual, totals[pair]);
+	}
+
+	private static int setBit(int mask, int bit, boolean set) {
+		return set ? mask | (1 << bit) : mask & ~(1 << bit);
+	}
+
+	private static long setBit(long mask, int bit, boolean set) {
+		return set ? mask | (1L << bit) : mask & ~(1L << bit);
+	}
+
+}
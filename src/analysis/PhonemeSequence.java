@@ -45,18 +45,18 @@ public class PhonemeSequence {
 	
 	@Override
 	public String toString() {
-		String s = "";
+		StringBuilder sb = new StringBuilder(phonemes.size() * 3);
 		
 		boolean start = true;
 		for (PHONEME p : phonemes) {
 			if (!start) {
-				s += "-";
+				sb.append('-');
 			}
-			s += p.name();
+			sb.append(p.name());
 			start = false;
 		}
 		
-		return s;
+		return sb.toString();
 	}
 	
 }
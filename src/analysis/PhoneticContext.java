@@ -0,0 +1,302 @@
+package analysis;
+
+import java.util.List;
+
+import enums.*;
+
+/**
+ * The environment observed at a single phoneme is always one of a
+ * finite number of tuples: (word position, syllable position,
+ * vowel position or none, previous consonant or none,
+ * next consonant or none).
+ *
+ * Every tuple is given a dense int id in [0, CONTEXT_COUNT), so
+ * contexts can be compared and used as array indexes.
+ */
+public class PhoneticContext {
+
+	// consonants in ordinal order, and each phoneme's index in that order
+	// (vowels and "none" both map to NO_CONSONANT)
+	private static final PHONEME[] CONSONANTS;
+	private static final int[] CONSONANT_INDEX =
+			new int[PHONEME.values().length];
+	static {
+		int count = 0;
+		for (PHONEME p : PHONEME.values()) {
+			if (!p.getGroup().equals(GROUP.VOWEL)) {
+				count++;
+			}
+		}
+		CONSONANTS = new PHONEME[count];
+		int i = 0;
+		for (PHONEME p : PHONEME.values()) {
+			if (p.getGroup().equals(GROUP.VOWEL)) {
+				CONSONANT_INDEX[p.ordinal()] = count;
+			} else {
+				CONSONANT_INDEX[p.ordinal()] = i;
+				CONSONANTS[i++] = p;
+			}
+		}
+	}
+
+	public static final int CONSONANT_COUNT = CONSONANTS.length;
+	static final int NO_CONSONANT = CONSONANT_COUNT;
+
+	// previous/next consonant indexes, including NO_CONSONANT
+	static final int NEIGHBOUR_RADIX = CONSONANT_COUNT + 1;
+	private static final int VOWEL_RADIX = VOWEL_POSITION.values().length + 1;
+	private static final int CONSONANT_POSITION_RADIX =
+			CONSONANT_POSITION.values().length;
+
+	// strides of each part of the tuple within an id
+	private static final int PREVIOUS_STRIDE = NEIGHBOUR_RADIX;
+	static final int VOWEL_STRIDE = PREVIOUS_STRIDE * NEIGHBOUR_RADIX;
+	private static final int SYLLABLE_STRIDE = VOWEL_STRIDE * VOWEL_RADIX;
+	private static final int WORD_STRIDE = SYLLABLE_STRIDE * CONSONANT_POSITION_RADIX;
+
+	public static final int CONTEXT_COUNT = WORD_STRIDE * CONSONANT_POSITION_RADIX;
+	// combinations of word, syllable and vowel position, ie id / VOWEL_STRIDE
+	static final int PLACEMENT_COUNT = CONTEXT_COUNT / VOWEL_STRIDE;
+
+	// placement masks (as stored in PhoneticEnvironment) for each
+	// combination of word/syllable/vowel position, ie id / VOWEL_STRIDE
+	private static final int[] WORD_BITS;
+	private static final int[] SYLLABLE_BITS;
+	private static final int[] VOWEL_BITS;
+	// phoneme mask of each consonant index (0 for none)
+	private static final long[] CONSONANT_BITS = new long[NEIGHBOUR_RADIX];
+	static {
+		WORD_BITS = new int[PLACEMENT_COUNT];
+		SYLLABLE_BITS = new int[PLACEMENT_COUNT];
+		VOWEL_BITS = new int[PLACEMENT_COUNT];
+		for (int i = 0; i < PLACEMENT_COUNT; i++) {
+			int id = i * VOWEL_STRIDE;
+			WORD_BITS[i] = 1 << (id / WORD_STRIDE);
+			SYLLABLE_BITS[i] = 1 << ((id / SYLLABLE_STRIDE) % CONSONANT_POSITION_RADIX);
+			int vowel = (id / VOWEL_STRIDE) % VOWEL_RADIX;
+			VOWEL_BITS[i] = vowel == 0 ? 0 : 1 << (vowel - 1);
+		}
+		for (int i = 0; i < CONSONANT_COUNT; i++) {
+			CONSONANT_BITS[i] = 1L << CONSONANTS[i].ordinal();
+		}
+	}
+
+	/**
+	 * Get the id of an observed environment
+	 * @param wordPosition: CONSONANT_POSITION in the word
+	 * @param syllablePosition: CONSONANT_POSITION in the syllable
+	 * @param vowelPosition: VOWEL_POSITION, or null if not next to a vowel
+	 * @param previousPhoneme: phoneme before, or null if none
+	 * (vowels are treated as none)
+	 * @param nextPhoneme: phoneme after, or null if none
+	 * (vowels are treated as none)
+	 * @return the context id
+	 */
+	public static int getContextId(POSITION wordPosition, POSITION syllablePosition,
+			POSITION vowelPosition, PHONEME previousPhoneme, PHONEME nextPhoneme) {
+		int vowel = vowelPosition == null ? 0
+				: ((VOWEL_POSITION) vowelPosition).ordinal() + 1;
+		return ((CONSONANT_POSITION) wordPosition).ordinal() * WORD_STRIDE +
+				((CONSONANT_POSITION) syllablePosition).ordinal() * SYLLABLE_STRIDE +
+				vowel * VOWEL_STRIDE +
+				consonantIndex(previousPhoneme) * PREVIOUS_STRIDE +
+				consonantIndex(nextPhoneme);
+	}
+
+	private static int consonantIndex(PHONEME p) {
+		return p == null ? NO_CONSONANT : CONSONANT_INDEX[p.ordinal()];
+	}
+
+	/**
+	 * @return the index of p among the consonants (in ordinal order),
+	 * or NO_CONSONANT if p is a vowel
+	 */
+	static int getConsonantIndex(PHONEME p) {
+		return CONSONANT_INDEX[p.ordinal()];
+	}
+
+	/**
+	 * @return the consonant at the given index (in ordinal order)
+	 */
+	static PHONEME getConsonant(int consonantIndex) {
+		return CONSONANTS[consonantIndex];
+	}
+
+	public static POSITION getWordPosition(int contextId) {
+		return CONSONANT_POSITION.values()[contextId / WORD_STRIDE];
+	}
+
+	public static POSITION getSyllablePosition(int contextId) {
+		return CONSONANT_POSITION.values()
+				[(contextId / SYLLABLE_STRIDE) % CONSONANT_POSITION_RADIX];
+	}
+
+	/**
+	 * @return the vowel position, or null if not next to a vowel
+	 */
+	public static POSITION getVowelPosition(int contextId) {
+		int vowel = (contextId / VOWEL_STRIDE) % VOWEL_RADIX;
+		return vowel == 0 ? null : VOWEL_POSITION.values()[vowel - 1];
+	}
+
+	/**
+	 * @return the consonant before, or null if none
+	 */
+	public static PHONEME getPreviousConsonant(int contextId) {
+		int i = (contextId / PREVIOUS_STRIDE) % NEIGHBOUR_RADIX;
+		return i == NO_CONSONANT ? null : CONSONANTS[i];
+	}
+
+	/**
+	 * @return the consonant after, or null if none
+	 */
+	public static PHONEME getNextConsonant(int contextId) {
+		int i = contextId % NEIGHBOUR_RADIX;
+		return i == NO_CONSONANT ? null : CONSONANTS[i];
+	}
+
+	// MASKS, AS STORED IN PhoneticEnvironment
+
+	static int getWordPlacementBit(int contextId) {
+		return WORD_BITS[contextId / VOWEL_STRIDE];
+	}
+
+	static int getSyllablePlacementBit(int contextId) {
+		return SYLLABLE_BITS[contextId / VOWEL_STRIDE];
+	}
+
+	static int getVowelPlacementBit(int contextId) {
+		return VOWEL_BITS[contextId / VOWEL_STRIDE];
+	}
+
+	static long getComesAfterBit(int contextId) {
+		return CONSONANT_BITS[(contextId / PREVIOUS_STRIDE) % NEIGHBOUR_RADIX];
+	}
+
+	static long getComesBeforeBit(int contextId) {
+		return CONSONANT_BITS[contextId % NEIGHBOUR_RADIX];
+	}
+
+	/**
+	 * Get the context of every phoneme in a word
+	 * @param phonemes: the word's phonemes, in order
+	 * @param syllableEnds: for each syllable, the index in phonemes
+	 * after its last phoneme
+	 * @param syllableCount: number of syllables
+	 * @param contextIds: filled with the context of each phoneme
+	 * (vowels included)
+	 */
+	public static void fillContextIds(PHONEME[] phonemes, int[] syllableEnds,
+			int syllableCount, int[] contextIds) {
+
+		// previous phoneme will be compared to later
+		PHONEME previousPhoneme = null;
+
+		int length = syllableCount == 0 ? 0 : syllableEnds[syllableCount - 1];
+
+		// loop through all syllables
+		boolean pastBeginning = false;
+		int start = 0;
+		for (int i = 0; i < syllableCount; i++) {
+			int end = syllableEnds[i];
+
+			// loop through all phonemes in the syllable
+			for (int k = start; k < end; k++) {
+				// the word is past its beginning from the first
+				// phoneme that doesn't start a syllable
+				if (k > start) {
+					pastBeginning = true;
+				}
+
+				// the next phoneme is the next one in the syllable, or the
+				// first of the next syllable, or none at the end of the word
+				PHONEME nextPhoneme = k + 1 < length ? phonemes[k + 1] : null;
+
+				contextIds[k] = getContextId(pastBeginning, k == start, k == end - 1,
+						k == end - 1 && i == syllableCount - 1,
+						previousPhoneme, nextPhoneme);
+
+				// move to next phoneme
+				previousPhoneme = phonemes[k];
+			}
+			start = end;
+		}
+	}
+
+	/**
+	 * Get the context of one phoneme of a word
+	 * @param pastBeginning: whether this or an earlier phoneme
+	 * isn't the first of its syllable
+	 * @param startsSyllable: whether it is the first of its syllable
+	 * @param endsSyllable: whether it is the last of its syllable
+	 * @param endsWord: whether it is the last of the last syllable
+	 * @param previousPhoneme: phoneme before, or null if none
+	 * @param nextPhoneme: phoneme after, or null if none
+	 * @return the context id
+	 */
+	static int getContextId(boolean pastBeginning, boolean startsSyllable,
+			boolean endsSyllable, boolean endsWord,
+			PHONEME previousPhoneme, PHONEME nextPhoneme) {
+		POSITION wordPosition = endsWord ? CONSONANT_POSITION.END
+				: pastBeginning ? CONSONANT_POSITION.MIDDLE
+				: CONSONANT_POSITION.BEGINNING;
+		POSITION syllablePosition = endsSyllable ? CONSONANT_POSITION.END
+				: startsSyllable ? CONSONANT_POSITION.BEGINNING
+				: CONSONANT_POSITION.MIDDLE;
+
+		POSITION vowelPosition = null;
+		if (previousPhoneme != null &&
+				previousPhoneme.getGroup().equals(GROUP.VOWEL) &&
+				nextPhoneme != null &&
+				nextPhoneme.getGroup().equals(GROUP.VOWEL)) {
+			// this phoneme is in the middle of two vowels
+			vowelPosition = VOWEL_POSITION.SURROUNDED_BY;
+		} else if (previousPhoneme != null &&
+				previousPhoneme.getGroup().equals(GROUP.VOWEL)) {
+			// this phoneme comes after (the end of) a vowel
+			vowelPosition = VOWEL_POSITION.AFTER;
+		} else if (nextPhoneme != null &&
+				nextPhoneme.getGroup().equals(GROUP.VOWEL)) {
+			// this phoneme comes before (the beginning of) a vowel
+			vowelPosition = VOWEL_POSITION.BEFORE;
+		}
+
+		return getContextId(wordPosition, syllablePosition,
+				vowelPosition, previousPhoneme, nextPhoneme);
+	}
+
+	/**
+	 * Get the context of every phoneme in a word
+	 * @param syllables: the word, as a sequence per syllable
+	 * @return the context of each phoneme, in order, across syllables
+	 */
+	public static int[] getContextIds(PhonemeSequence[] syllables) {
+		int length = 0;
+		for (PhonemeSequence s : syllables) {
+			length += s.size();
+		}
+		PHONEME[] phonemes = new PHONEME[length];
+		int[] syllableEnds = new int[syllables.length];
+		int k = 0;
+		for (int i = 0; i < syllables.length; i++) {
+			List<PHONEME> seq = syllables[i].getSequence();
+			for (PHONEME p : seq) {
+				phonemes[k++] = p;
+			}
+			syllableEnds[i] = k;
+		}
+		int[] contextIds = new int[length];
+		fillContextIds(phonemes, syllableEnds, syllables.length, contextIds);
+		return contextIds;
+	}
+
+	/**
+	 * Build the environment that holds exactly one context
+	 * @param contextId
+	 * @return the environment
+	 */
+	public static PhoneticEnvironment toEnvironment(int contextId) {
+		return new PhoneticEnvironment.Builder(false).addContext(contextId).build();
+	}
+
+}
@@ -1,159 +1,89 @@
 package analysis;
 
-import helpers.Helpers;
-
-import java.util.HashSet;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 import enums.*;
 
-public class PhoneticEnvironment {
-	Set<POSITION> wordPlacement;
-	Set<POSITION> syllablePlacement;
-	Set<POSITION> vowelPlacement;
-
-	// sets of descriptions of sounds before/after the rule occurs
-	Set<PHONEME> comesAfterPhonemes;
-	Set<PHONEME> comesBeforePhonemes;
-	
-	Set<PHONEME> doesntComeAfterPhonemes;
-	Set<PHONEME> doesntComeBeforePhonemes;
-
-	
-	public PhoneticEnvironment(boolean global) {
-		wordPlacement = new HashSet<POSITION>();
-		syllablePlacement = new HashSet<POSITION>();
-		vowelPlacement = new HashSet<POSITION>();
-
-		comesAfterPhonemes = new HashSet<PHONEME>();
-		comesBeforePhonemes = new HashSet<PHONEME>();
-
-		doesntComeAfterPhonemes = new HashSet<PHONEME>();
-		doesntComeBeforePhonemes = new HashSet<PHONEME>();
-		
-		if (global) {
-			
-			// comes after/before any feature
-			makeComesBeforeAndAfterGlobal();
-			
-			// comes at every placement
-			POSITION[] vals = CONSONANT_POSITION.values();
-			for (int i = 0; i < vals.length; i++) {
-				wordPlacement.add(vals[i]);
-				syllablePlacement.add(vals[i]);
-			}
-			vals = VOWEL_POSITION.values();
-			for (int i = 0; i < vals.length; i++) {
-				vowelPlacement.add(vals[i]);
+/**
+ * The set of environments a rule applies in. Environments are immutable
+ * (so their hash is worked out once); make or change one with a Builder.
+ *
+ * Placements are stored as bit masks over the ordinals of their POSITION
+ * enum, and the phonemes a rule comes after/before as bit masks over
+ * PHONEME ordinals. The doesntComeAfter/Before sets are the consonants
+ * missing from the comesAfter/Before masks, so they are derived on read
+ * and always add up.
+ */
+public final class PhoneticEnvironment {
+
+	// every consonant (vowels are ignored for before/after)
+	static final long CONSONANT_MASK;
+	static {
+		long mask = 0L;
+		for (PHONEME p : PHONEME.values()) {
+			if (!p.getGroup().equals(GROUP.VOWEL)) {
+				mask |= 1L << p.ordinal();
 			}
 		}
+		CONSONANT_MASK = mask;
 	}
-	
-	// OPTIONS TO UPDATE AND GET INFO ABOUT THE RULE
+	static final int CONSONANT_POSITION_MASK =
+			(1 << CONSONANT_POSITION.values().length) - 1;
+	static final int VOWEL_POSITION_MASK =
+			(1 << VOWEL_POSITION.values().length) - 1;
 
-	public void setWordPlacement(POSITION p) {
-		wordPlacement = new HashSet<POSITION>();
-		wordPlacement.add(p);
-	}
-	public void setWordPlacement(Set<POSITION> ps) {
-		this.wordPlacement = new HashSet<POSITION>(ps);
-	}
+	final int wordPlacement;
+	final int syllablePlacement;
+	final int vowelPlacement;
 
-	public void setSyllablePlacement(POSITION p) {
-		syllablePlacement = new HashSet<POSITION>();
-		syllablePlacement.add(p);
-	}
-	public void setSyllablePlacement(Set<POSITION> ps) {
-		this.syllablePlacement = new HashSet<POSITION>(ps);
-	}
-	
-	public void setVowelPlacement(POSITION p) {
-		vowelPlacement = new HashSet<POSITION>();
-		vowelPlacement.add(p);
-	}
-	public void setVowelPlacement(Set<POSITION> ps) {
-		this.vowelPlacement = new HashSet<POSITION>(ps);
-	}
-	
-	public void addWordPlacement(POSITION p) {
-		wordPlacement.add(p);
-	}
-
-	public void removeWordPlacement(POSITION p) {
-		wordPlacement.remove(p);
-	}
+	// masks of phonemes before/after the rule occurs
+	final long comesAfterPhonemes;
+	final long comesBeforePhonemes;
 
-	public Set<POSITION> getWordPlacement() {
-		return wordPlacement;
-	}
+	private final int hash;
 
-	public void addSyllablePlacement(POSITION p) {
-		syllablePlacement.add(p);
-	}
-
-	public Set<POSITION> getSyllablePlacement() {
-		return syllablePlacement;
-	}
-
-	public void removeSyllablePlacement(POSITION p) {
-		syllablePlacement.remove(p);
-	}
 
-	public void addVowelPlacement(POSITION p) {
-		if (p != null) {
-			vowelPlacement.add(p);
-		}
+	public PhoneticEnvironment(boolean global) {
+		this(global ? CONSONANT_POSITION_MASK : 0,
+				global ? CONSONANT_POSITION_MASK : 0,
+				global ? VOWEL_POSITION_MASK : 0,
+				// comes after/before any phoneme
+				global ? CONSONANT_MASK : 0L,
+				global ? CONSONANT_MASK : 0L);
 	}
 
-	public Set<POSITION> getVowelPlacement() {
-		return vowelPlacement;
-	}
+	PhoneticEnvironment(int wordPlacement, int syllablePlacement,
+			int vowelPlacement, long comesAfterPhonemes, long comesBeforePhonemes) {
+		this.wordPlacement = wordPlacement;
+		this.syllablePlacement = syllablePlacement;
+		this.vowelPlacement = vowelPlacement;
+		this.comesAfterPhonemes = comesAfterPhonemes;
+		this.comesBeforePhonemes = comesBeforePhonemes;
 
-	public void removeVowelPlacement(POSITION p) {
-		vowelPlacement.remove(p);
+		int h = wordPlacement;
+		h = 31 * h + syllablePlacement;
+		h = 31 * h + vowelPlacement;
+		h = 31 * h + Long.hashCode(comesAfterPhonemes);
+		h = 31 * h + Long.hashCode(comesBeforePhonemes);
+		this.hash = h;
 	}
 
-	public void addComesAfterPhoneme(PHONEME p) {
-		
-		// if there are no phonemes that the rule comes after,
-		// then in order to maintain balance, add every phoneme to
-		// what the rule doesn't come after (and remove it later)
-		if (comesAfterPhonemes.size() == 0) {
-			makeDoesntComeAfterGlobal();
-		}
-		
-		comesAfterPhonemes.add(p);
-		doesntComeAfterPhonemes.remove(p);
+	// INFO ABOUT THE ENVIRONMENT
 
-		assertComesAndDoesntComeAddUp(comesAfterPhonemes, doesntComeAfterPhonemes);
+	public Set<POSITION> getWordPlacement() {
+		return positionSet(wordPlacement, CONSONANT_POSITION.values());
 	}
 
-	public void addComesBeforePhoneme(PHONEME p) {
-
-		// if there are no phonemes that the rule comes before,
-		// then in order to maintain balance, add every phoneme to
-		// what the rule doesn't come before (and remove it later)
-		if (comesBeforePhonemes.size() == 0) {
-			makeDoesntComeBeforeGlobal();
-		}
-		
-		comesBeforePhonemes.add(p);
-		doesntComeBeforePhonemes.remove(p);
-		assertComesAndDoesntComeAddUp(comesBeforePhonemes, doesntComeBeforePhonemes);
+	public Set<POSITION> getSyllablePlacement() {
+		return positionSet(syllablePlacement, CONSONANT_POSITION.values());
 	}
 
-	public void removeComesAfterPhoneme(PHONEME p) {
-		comesAfterPhonemes.remove(p);
-		doesntComeAfterPhonemes.add(p);
-		assertComesAndDoesntComeAddUp(comesAfterPhonemes, doesntComeAfterPhonemes);
+	public Set<POSITION> getVowelPlacement() {
+		return positionSet(vowelPlacement, VOWEL_POSITION.values());
 	}
 
-	public void removeComesBeforePhoneme(PHONEME p) {
-		comesBeforePhonemes.remove(p);
-		doesntComeBeforePhonemes.add(p);
-		assertComesAndDoesntComeAddUp(comesBeforePhonemes, doesntComeBeforePhonemes);
-	}
-	
 	/**
 	 * Whether or not this environment applies for a given environment
 	 * @param e: the given environment
@@ -163,160 +93,92 @@ public class PhoneticEnvironment {
 	 * of the given environment (ignoring doesnt come after/before)
 	 */
 	public boolean containsEnvironment(PhoneticEnvironment e, boolean ignoreDoesntCome) {
-		boolean contains = 
-				wordPlacement.containsAll(e.getWordPlacement()) &&
-				syllablePlacement.containsAll(e.getSyllablePlacement()) &&
-				vowelPlacement.containsAll(e.getVowelPlacement()) &&
-				comesAfterPhonemes.containsAll(e.getComesAfterPhonemes()) &&
-				comesBeforePhonemes.containsAll(e.getComesBeforePhonemes());
-		
+		boolean contains =
+				(e.wordPlacement & ~wordPlacement) == 0 &&
+				(e.syllablePlacement & ~syllablePlacement) == 0 &&
+				(e.vowelPlacement & ~vowelPlacement) == 0 &&
+				(e.comesAfterPhonemes & ~comesAfterPhonemes) == 0 &&
+				(e.comesBeforePhonemes & ~comesBeforePhonemes) == 0;
+
 		if (ignoreDoesntCome) {
 			return contains;
 		}
-		
-		return contains && 
-				doesntComeAfterPhonemes.containsAll(e.getDoesntComeAfterPhonemes()) &&
-				doesntComeBeforePhonemes.containsAll(e.getDoesntComeBeforePhonemes());
-		
+
+		// doesn't come after/before are the complements, so containing
+		// the other's complement means being contained by the other
+		return contains &&
+				(comesAfterPhonemes & ~e.comesAfterPhonemes) == 0 &&
+				(comesBeforePhonemes & ~e.comesBeforePhonemes) == 0;
+
 	}
 
-	private void assertComesAndDoesntComeAddUp(Set<PHONEME> s1, Set<PHONEME> s2) {
-		boolean ok = (s1.size() + s2.size() 
-				== (PHONEME.values().length - VOWELS_FOR_REFERENCE.values().length));
-		if (!ok) {
-			String str = "";
-			System.out.println(s1 + " " + s1.size());
-			System.out.println(s2 + " " + s2.size());
-			if (s1.equals(comesAfterPhonemes) && s2.equals(doesntComeAfterPhonemes)) {
-				str += "After/DoesntComeAfter";
-			} else if (s1.equals(comesBeforePhonemes) && s2.equals(doesntComeBeforePhonemes)) {
-				str += "Before/DoesntComeBefore";
-			} else {
-				throw new IllegalArgumentException("Invalid sets.");
-			}
-			throw new RuntimeException("Error in making " + str + " match up");
-		}
+	/**
+	 * Whether or not this environment applies for a single observed context.
+	 * Same as containsEnvironment(PhoneticContext.toEnvironment(contextId), true)
+	 * @param contextId: the id of the context, from PhoneticContext
+	 * @return true if every aspect of the context is in this environment
+	 */
+	public boolean containsContext(int contextId) {
+		return (PhoneticContext.getWordPlacementBit(contextId) & ~wordPlacement) == 0 &&
+				(PhoneticContext.getSyllablePlacementBit(contextId) & ~syllablePlacement) == 0 &&
+				(PhoneticContext.getVowelPlacementBit(contextId) & ~vowelPlacement) == 0 &&
+				(PhoneticContext.getComesAfterBit(contextId) & ~comesAfterPhonemes) == 0 &&
+				(PhoneticContext.getComesBeforeBit(contextId) & ~comesBeforePhonemes) == 0;
 	}
-	
-	public void setComesAfterPhonemes(Set<PHONEME> set) {
-		this.comesAfterPhonemes = set;
-		doesntComeAfterPhonemes =
-				Helpers.getSet1MinusSet2(PHONEME.values(), comesAfterPhonemes);
-		assertComesAndDoesntComeAddUp(comesAfterPhonemes, doesntComeAfterPhonemes);
-		
+
+	/**
+	 * Every context has a word and a syllable position (but may have no
+	 * vowel or neighbouring consonant), so an environment without either
+	 * placement contains no context
+	 * @return true if the environment contains no context
+	 */
+	boolean isEmpty() {
+		return wordPlacement == 0 || syllablePlacement == 0;
 	}
-	public void setComesBeforePhonemes(Set<PHONEME> set) {
-		this.comesBeforePhonemes = set;
-		doesntComeBeforePhonemes =
-				Helpers.getSet1MinusSet2(PHONEME.values(), comesBeforePhonemes);
-		assertComesAndDoesntComeAddUp(comesBeforePhonemes, doesntComeBeforePhonemes);
+
+	/**
+	 * @param e: another environment
+	 * @return true if some context is in both environments
+	 */
+	boolean overlaps(PhoneticEnvironment e) {
+		// the context with no vowel or neighbours is in both
+		// as long as they share a word and syllable position
+		return (wordPlacement & e.wordPlacement) != 0 &&
+				(syllablePlacement & e.syllablePlacement) != 0;
 	}
 
 	public Set<PHONEME> getComesAfterPhonemes() {
-		return comesAfterPhonemes;
+		return phonemeSet(comesAfterPhonemes);
 	}
 	public Set<PHONEME> getComesBeforePhonemes() {
-		return comesBeforePhonemes;
+		return phonemeSet(comesBeforePhonemes);
 	}
 
 	public Set<PHONEME> getDoesntComeAfterPhonemes() {
-		return doesntComeAfterPhonemes;
+		return phonemeSet(CONSONANT_MASK & ~comesAfterPhonemes);
 	}
 	public Set<PHONEME> getDoesntComeBeforePhonemes() {
-		return doesntComeBeforePhonemes;
-	}
-
-	public void makeComesAfterGlobal() {
-		// can come after every phoneme
-		// (ignore vowels)
-		for (PHONEME p : PHONEME.values()) {
-			if (p.getGroup().equals(GROUP.VOWEL)) {
-				continue;
-			}
-			comesAfterPhonemes.add(p);
-		}
-		doesntComeAfterPhonemes.clear();
-	}
-	
-	public void makeComesBeforeGlobal() {
-		// can come before every phoneme
-		// (ignore vowels)
-		for (PHONEME p : PHONEME.values()) {
-			if (p.getGroup().equals(GROUP.VOWEL)) {
-				continue;
-			}
-			comesBeforePhonemes.add(p);
-		}
-		doesntComeBeforePhonemes.clear();
-	}
-
-
-	public void makeDoesntComeAfterGlobal() {
-		// can come after every phoneme
-		// (ignore vowels)
-		for (PHONEME p : PHONEME.values()) {
-			if (p.getGroup().equals(GROUP.VOWEL)) {
-				continue;
-			}
-			doesntComeAfterPhonemes.add(p);
-		}
-		comesAfterPhonemes.clear();
-	}
-
-	public void makeDoesntComeBeforeGlobal() {
-		// can come after every phoneme
-		// (ignore vowels)
-		for (PHONEME p : PHONEME.values()) {
-			if (p.getGroup().equals(GROUP.VOWEL)) {
-				continue;
-			}
-			doesntComeBeforePhonemes.add(p);
-		}
-		comesBeforePhonemes.clear();
-	}
-	
-	public void makeComesBeforeAndAfterGlobal() {
-		// can come after and before every phoneme
-		// (ignore vowels)
-		for (PHONEME p : PHONEME.values()) {
-			if (p.getGroup().equals(GROUP.VOWEL)) {
-				continue;
-			}
-			comesAfterPhonemes.add(p);
-			comesBeforePhonemes.add(p);
-		}
-		doesntComeAfterPhonemes.clear();
-		doesntComeBeforePhonemes.clear();
+		return phonemeSet(CONSONANT_MASK & ~comesBeforePhonemes);
 	}
 
 	public boolean isWordPlacementGlobal() {
-		return wordPlacement.size() == CONSONANT_POSITION.values().length;
+		return wordPlacement == CONSONANT_POSITION_MASK;
 	}
-	
+
 	public boolean isSyllablePlacementGlobal() {
-		return syllablePlacement.size() == CONSONANT_POSITION.values().length;
+		return syllablePlacement == CONSONANT_POSITION_MASK;
 	}
 
 	public boolean isVowelPlacementGlobal() {
-		return vowelPlacement.size() == VOWEL_POSITION.values().length;
+		return vowelPlacement == VOWEL_POSITION_MASK;
 	}
-	
+
 	public boolean isComesAfterPhonemesGlobal() {
-		boolean yes = comesAfterPhonemes.size() == PHONEME.values().length -
-				VOWELS_FOR_REFERENCE.values().length;
-		if (yes) {
-			assert(doesntComeAfterPhonemes.size() == 0);
-		}
-		return yes;
+		return comesAfterPhonemes == CONSONANT_MASK;
 	}
-	
+
 	public boolean isComesBeforePhonemesGlobal() {
-		boolean yes = comesBeforePhonemes.size() == PHONEME.values().length -
-				VOWELS_FOR_REFERENCE.values().length;
-		if (yes) {
-			assert(doesntComeBeforePhonemes.size() == 0);
-		}
-		return yes;
+		return comesBeforePhonemes == CONSONANT_MASK;
 	}
 
 	/**
@@ -325,12 +187,95 @@ public class PhoneticEnvironment {
 	 * @return if it is global or not
 	 */
 	public boolean isGlobal() {
-		
+
 		return isWordPlacementGlobal() && isSyllablePlacementGlobal() &&
 				isVowelPlacementGlobal() && isComesAfterPhonemesGlobal() &&
 				isComesBeforePhonemesGlobal();
 	}
-	
+
+	/**
+	 * @return how many placements and phonemes the environment has,
+	 * the fewer the more specific it is
+	 */
+	int getSize() {
+		return Integer.bitCount(wordPlacement) + Integer.bitCount(syllablePlacement) +
+				Integer.bitCount(vowelPlacement) + Long.bitCount(comesAfterPhonemes) +
+				Long.bitCount(comesBeforePhonemes);
+	}
+
+	/**
+	 * Orders environments most specific (smallest) first, then by their
+	 * masks, so that different environments never tie
+	 */
+	static int compareSpecificity(PhoneticEnvironment a, PhoneticEnvironment b) {
+		int c = Integer.compare(a.getSize(), b.getSize());
+		if (c == 0) {
+			c = Integer.compare(a.wordPlacement, b.wordPlacement);
+		}
+		if (c == 0) {
+			c = Integer.compare(a.syllablePlacement, b.syllablePlacement);
+		}
+		if (c == 0) {
+			c = Integer.compare(a.vowelPlacement, b.vowelPlacement);
+		}
+		if (c == 0) {
+			c = Long.compare(a.comesAfterPhonemes, b.comesAfterPhonemes);
+		}
+		if (c == 0) {
+			c = Long.compare(a.comesBeforePhonemes, b.comesBeforePhonemes);
+		}
+		return c;
+	}
+
+	// MASK HELPERS
+
+	private static int positionBit(POSITION p) {
+		if (p == null) {
+			return 0;
+		}
+		return 1 << ((Enum<?>) p).ordinal();
+	}
+
+	private static int positionMask(Set<POSITION> ps) {
+		int mask = 0;
+		for (POSITION p : ps) {
+			mask |= positionBit(p);
+		}
+		return mask;
+	}
+
+	private static Set<POSITION> positionSet(int mask, POSITION[] vals) {
+		Set<POSITION> set = new LinkedHashSet<POSITION>();
+		for (int i = 0; i < vals.length; i++) {
+			if ((mask & (1 << i)) != 0) {
+				set.add(vals[i]);
+			}
+		}
+		return set;
+	}
+
+	private static long phonemeBit(PHONEME p) {
+		return (1L << p.ordinal()) & CONSONANT_MASK;
+	}
+
+	private static long phonemeMask(Set<PHONEME> ps) {
+		long mask = 0L;
+		for (PHONEME p : ps) {
+			mask |= phonemeBit(p);
+		}
+		return mask;
+	}
+
+	private static Set<PHONEME> phonemeSet(long mask) {
+		Set<PHONEME> set = EnumSet.noneOf(PHONEME.class);
+		for (PHONEME p : PHONEME.values()) {
+			if ((mask & (1L << p.ordinal())) != 0) {
+				set.add(p);
+			}
+		}
+		return set;
+	}
+
 	@Override
 	/**
 	 * PE A = PE B if B's details equal all of A's details
@@ -343,24 +288,19 @@ public class PhoneticEnvironment {
             return false;
         }
         PhoneticEnvironment r = (PhoneticEnvironment) o;
-        return  r.wordPlacement.equals(wordPlacement) &&
-        		r.syllablePlacement.equals(syllablePlacement) &&
-        		r.vowelPlacement.equals(vowelPlacement) &&
-                r.comesAfterPhonemes.equals(comesAfterPhonemes) &&
-                r.comesBeforePhonemes.equals(comesBeforePhonemes) &&
-                r.doesntComeAfterPhonemes.equals(doesntComeAfterPhonemes) &&
-                r.doesntComeBeforePhonemes.equals(doesntComeBeforePhonemes);
+        return  r.hash == hash &&
+        		r.wordPlacement == wordPlacement &&
+        		r.syllablePlacement == syllablePlacement &&
+        		r.vowelPlacement == vowelPlacement &&
+                r.comesAfterPhonemes == comesAfterPhonemes &&
+                r.comesBeforePhonemes == comesBeforePhonemes;
     }
-	
+
 	@Override
     public int hashCode() {
-        return wordPlacement.hashCode() + syllablePlacement.hashCode() + 
-        		vowelPlacement.hashCode() + comesAfterPhonemes.hashCode() +
-        		comesBeforePhonemes.hashCode() +
-        		doesntComeAfterPhonemes.hashCode() + 
-        		doesntComeBeforePhonemes.hashCode();
+        return hash;
     }
-	
+
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
@@ -368,19 +308,19 @@ public class PhoneticEnvironment {
 		if (isGlobal()) {
 			sb.append("(Global Environment)");
 		}
-		
+
 		sb.append("\nWord Placements: ");
 		if (isWordPlacementGlobal()) {
 			sb.append(" (Global) ");
 		}
 		sb.append(getWordPlacement());
-		
+
 		sb.append("\nSyllable Placements: ");
 		if (isSyllablePlacementGlobal()) {
 			sb.append(" (Global) ");
 		}
 		sb.append(getSyllablePlacement());
-		
+
 		sb.append("\nVowel Placements: ");
 		if (isVowelPlacementGlobal()) {
 			sb.append(" (Global) ");
@@ -391,20 +331,217 @@ public class PhoneticEnvironment {
 		if (isComesAfterPhonemesGlobal()) {
 			sb.append(" (Global) ");
 		}
-		sb.append(comesAfterPhonemes);
+		sb.append(getComesAfterPhonemes());
 
 		sb.append("\nDoesn't Come After PHONEMES\n");
-		sb.append(doesntComeAfterPhonemes);
-		
+		sb.append(getDoesntComeAfterPhonemes());
+
 		sb.append("\nComes Before PHONEMES\n");
 		if (isComesBeforePhonemesGlobal()) {
 			sb.append(" (Global) ");
 		}
-		sb.append(comesBeforePhonemes);
+		sb.append(getComesBeforePhonemes());
 
 		sb.append("\nDoesn't Come Before PHONEMES\n");
-		sb.append(doesntComeBeforePhonemes);
-		
+		sb.append(getDoesntComeBeforePhonemes());
+
 		return sb.toString();
 	}
+
+	/**
+	 * Mutable environment, used while rules are being formed
+	 */
+	public static final class Builder {
+
+		private int wordPlacement;
+		private int syllablePlacement;
+		private int vowelPlacement;
+		private long comesAfterPhonemes;
+		private long comesBeforePhonemes;
+
+		/**
+		 * @param global: start with every placement and phoneme if true,
+		 * or with none
+		 */
+		public Builder(boolean global) {
+			this(new PhoneticEnvironment(global));
+		}
+
+		/**
+		 * Start with the same details as an environment
+		 * @param e
+		 */
+		public Builder(PhoneticEnvironment e) {
+			this.wordPlacement = e.wordPlacement;
+			this.syllablePlacement = e.syllablePlacement;
+			this.vowelPlacement = e.vowelPlacement;
+			this.comesAfterPhonemes = e.comesAfterPhonemes;
+			this.comesBeforePhonemes = e.comesBeforePhonemes;
+		}
+
+		public PhoneticEnvironment build() {
+			return new PhoneticEnvironment(wordPlacement, syllablePlacement,
+					vowelPlacement, comesAfterPhonemes, comesBeforePhonemes);
+		}
+
+		public Builder setWordPlacement(POSITION p) {
+			wordPlacement = positionBit(p);
+			return this;
+		}
+		public Builder setWordPlacement(Set<POSITION> ps) {
+			wordPlacement = positionMask(ps);
+			return this;
+		}
+
+		public Builder setSyllablePlacement(POSITION p) {
+			syllablePlacement = positionBit(p);
+			return this;
+		}
+		public Builder setSyllablePlacement(Set<POSITION> ps) {
+			syllablePlacement = positionMask(ps);
+			return this;
+		}
+
+		public Builder setVowelPlacement(POSITION p) {
+			vowelPlacement = positionBit(p);
+			return this;
+		}
+		public Builder setVowelPlacement(Set<POSITION> ps) {
+			vowelPlacement = positionMask(ps);
+			return this;
+		}
+
+		public Builder addWordPlacement(POSITION p) {
+			wordPlacement |= positionBit(p);
+			return this;
+		}
+
+		public Builder removeWordPlacement(POSITION p) {
+			wordPlacement &= ~positionBit(p);
+			return this;
+		}
+
+		public Builder addSyllablePlacement(POSITION p) {
+			syllablePlacement |= positionBit(p);
+			return this;
+		}
+
+		public Builder removeSyllablePlacement(POSITION p) {
+			syllablePlacement &= ~positionBit(p);
+			return this;
+		}
+
+		public Builder addVowelPlacement(POSITION p) {
+			vowelPlacement |= positionBit(p);
+			return this;
+		}
+
+		public Builder removeVowelPlacement(POSITION p) {
+			vowelPlacement &= ~positionBit(p);
+			return this;
+		}
+
+		public Builder addComesAfterPhoneme(PHONEME p) {
+			comesAfterPhonemes |= phonemeBit(p);
+			return this;
+		}
+
+		public Builder addComesBeforePhoneme(PHONEME p) {
+			comesBeforePhonemes |= phonemeBit(p);
+			return this;
+		}
+
+		public Builder removeComesAfterPhoneme(PHONEME p) {
+			comesAfterPhonemes &= ~phonemeBit(p);
+			return this;
+		}
+
+		public Builder removeComesBeforePhoneme(PHONEME p) {
+			comesBeforePhonemes &= ~phonemeBit(p);
+			return this;
+		}
+
+		/**
+		 * Add every aspect of an observed context to the environment
+		 * @param contextId: the id of the context, from PhoneticContext
+		 */
+		public Builder addContext(int contextId) {
+			wordPlacement |= PhoneticContext.getWordPlacementBit(contextId);
+			syllablePlacement |= PhoneticContext.getSyllablePlacementBit(contextId);
+			vowelPlacement |= PhoneticContext.getVowelPlacementBit(contextId);
+			comesAfterPhonemes |= PhoneticContext.getComesAfterBit(contextId);
+			comesBeforePhonemes |= PhoneticContext.getComesBeforeBit(contextId);
+			return this;
+		}
+
+		/**
+		 * Remove every aspect of an observed context from the environment
+		 * @param contextId: the id of the context, from PhoneticContext
+		 */
+		public Builder removeContext(int contextId) {
+			wordPlacement &= ~PhoneticContext.getWordPlacementBit(contextId);
+			syllablePlacement &= ~PhoneticContext.getSyllablePlacementBit(contextId);
+			vowelPlacement &= ~PhoneticContext.getVowelPlacementBit(contextId);
+			comesAfterPhonemes &= ~PhoneticContext.getComesAfterBit(contextId);
+			comesBeforePhonemes &= ~PhoneticContext.getComesBeforeBit(contextId);
+			return this;
+		}
+
+		public Builder setComesAfterPhonemes(Set<PHONEME> set) {
+			comesAfterPhonemes = phonemeMask(set);
+			return this;
+		}
+		public Builder setComesBeforePhonemes(Set<PHONEME> set) {
+			comesBeforePhonemes = phonemeMask(set);
+			return this;
+		}
+
+		public Set<PHONEME> getComesAfterPhonemes() {
+			return phonemeSet(comesAfterPhonemes);
+		}
+		public Set<PHONEME> getComesBeforePhonemes() {
+			return phonemeSet(comesBeforePhonemes);
+		}
+
+		public Set<PHONEME> getDoesntComeAfterPhonemes() {
+			return phonemeSet(CONSONANT_MASK & ~comesAfterPhonemes);
+		}
+		public Set<PHONEME> getDoesntComeBeforePhonemes() {
+			return phonemeSet(CONSONANT_MASK & ~comesBeforePhonemes);
+		}
+
+		public Builder makeComesAfterGlobal() {
+			// can come after every phoneme
+			// (ignore vowels)
+			comesAfterPhonemes = CONSONANT_MASK;
+			return this;
+		}
+
+		public Builder makeComesBeforeGlobal() {
+			// can come before every phoneme
+			// (ignore vowels)
+			comesBeforePhonemes = CONSONANT_MASK;
+			return this;
+		}
+
+		public Builder makeDoesntComeAfterGlobal() {
+			// can't come after any phoneme
+			comesAfterPhonemes = 0L;
+			return this;
+		}
+
+		public Builder makeDoesntComeBeforeGlobal() {
+			// can't come before any phoneme
+			comesBeforePhonemes = 0L;
+			return this;
+		}
+
+		public Builder makeComesBeforeAndAfterGlobal() {
+			// can come after and before every phoneme
+			// (ignore vowels)
+			comesAfterPhonemes = CONSONANT_MASK;
+			comesBeforePhonemes = CONSONANT_MASK;
+			return this;
+		}
+	}
 }
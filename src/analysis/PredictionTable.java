@@ -0,0 +1,50 @@
+package analysis;
+
+import enums.*;
+
+/**
+ * A trained model compiled down to one guess for every
+ * (target consonant, context) pair, so guessing a phoneme
+ * is a single array read.
+ */
+public class PredictionTable {
+
+	private static final PHONEME[] PHONEMES = PHONEME.values();
+
+	// ordinal of the guessed phoneme, indexed by
+	// consonant index * CONTEXT_COUNT + context id
+	private final byte[] guesses;
+
+	/**
+	 * Construct from already compiled guesses
+	 * @param guesses: ordinal of the guess for every
+	 * (consonant index, context id), as laid out by index()
+	 */
+	PredictionTable(byte[] guesses) {
+		if (guesses.length != PhoneticContext.CONSONANT_COUNT
+				* PhoneticContext.CONTEXT_COUNT) {
+			throw new IllegalArgumentException("Need a guess for every "
+					+ "consonant in every context.");
+		}
+		this.guesses = guesses;
+	}
+
+	static int index(int consonantIndex, int contextId) {
+		return consonantIndex * PhoneticContext.CONTEXT_COUNT + contextId;
+	}
+
+	/**
+	 * Get the guess for a phoneme in a context
+	 * @param targetPhoneme: the phoneme the child will try to say
+	 * @param contextId: the context it is in, from PhoneticContext
+	 * @return the guessed phoneme (vowels are always kept)
+	 */
+	public PHONEME getGuess(PHONEME targetPhoneme, int contextId) {
+		int c = PhoneticContext.getConsonantIndex(targetPhoneme);
+		if (c == PhoneticContext.NO_CONSONANT) {
+			return targetPhoneme;
+		}
+		return PHONEMES[guesses[index(c, contextId)]];
+	}
+
+}
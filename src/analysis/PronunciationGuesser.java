@@ -1,20 +1,45 @@
 package analysis;
 
-import helpers.Helpers;
-
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
 
 import enums.*;
 
 public class PronunciationGuesser {
 
-	private Collection<GeneralizedRule> rules;
-	private Map<FeatureProperties, PHONEME> featuresToPhoneme;
-	Map<PHONEME, Set<SpecificRule>> phonemeToSpecificRules;
+	// buffers for guessing without allocating, one per thread
+	private static final ThreadLocal<WordBuffer> WORD_BUFFERS =
+			ThreadLocal.withInitial(WordBuffer::new);
+
+	// words guessed by one fork/join task before it stops splitting
+	private static final int BATCH_SPLIT_SIZE = 256;
+
+	// words read from a file per batch, see guessPronunciationsOfFile
+	private static final int FILE_CHUNK_SIZE = 1 << 14;
+	private static final int FILE_BUFFER_SIZE = 1 << 16;
+
+	// guesses kept by a new guesser
+	public static final int DEFAULT_CACHE_SIZE = 4096;
+
+	// the model guesses are made with, and its cache
+	private final AtomicReference<Serving> serving;
+	// whether models should reorder their rules, see setAdaptiveOrdering
+	// (written while holding this guesser's lock, like the model)
+	private volatile boolean adaptiveOrdering;
 
 	/**
 	 * Given a set of general rules, construct a guesser
@@ -22,20 +47,92 @@ public class PronunciationGuesser {
 	 */
 	public PronunciationGuesser(Collection<GeneralizedRule> collection, 
 			Map<PHONEME, Set<SpecificRule>> phonemeToSpecificRules) {
-		this.rules = collection;
-		this.phonemeToSpecificRules = phonemeToSpecificRules;
-		// initialize features to phoneme map
-		featuresToPhoneme = new HashMap<FeatureProperties, PHONEME>();
-		for (PHONEME p : PHONEME.values()) {
-			// don't add vowels
-			if (p.getGroup().equals(GROUP.VOWEL)) {
-				continue;
-			}
-			// add to map
-			featuresToPhoneme.put(
-					new FeatureProperties(p.getPlace(), 
-							p.getManner(), p.getVoice()), p);
+		this(new GuessingModel(collection, phonemeToSpecificRules));
+	}
+
+	/**
+	 * Construct a guesser that guesses with the given model
+	 * @param model
+	 */
+	public PronunciationGuesser(GuessingModel model) {
+		if (model == null) {
+			throw new IllegalArgumentException("Model cannot be null");
+		}
+		serving = new AtomicReference<Serving>(
+				new Serving(model, new GuessCache(DEFAULT_CACHE_SIZE)));
+	}
+
+	public GuessingModel getModel() {
+		return serving.get().model;
+	}
+
+	/**
+	 * Start guessing with a new model, ie after retraining. Guesses already
+	 * under way finish with the old model. Cached guesses belong to the
+	 * old model, so the cache is replaced by an empty one of the same size.
+	 * @param model: the new model (compile it first to guess from a
+	 * compiled table straight away)
+	 * @return the old model
+	 */
+	public synchronized GuessingModel setModel(GuessingModel model) {
+		if (model == null) {
+			throw new IllegalArgumentException("Model cannot be null");
 		}
+		if (adaptiveOrdering) {
+			model.setAdaptiveOrdering(true);
+		}
+		Serving old = serving.getAndUpdate(s -> new Serving(model,
+				s.cache == null ? null : new GuessCache(s.cache.getMaximumSize())));
+		return old.model;
+	}
+
+	/**
+	 * @return the cache of guesses, or null if guesses aren't cached
+	 */
+	public GuessCache getGuessCache() {
+		return serving.get().cache;
+	}
+
+	/**
+	 * Set the cache used by guessPronunciationOfTargetWord(String) and the
+	 * batch methods. New guessers have a cache of DEFAULT_CACHE_SIZE.
+	 * @param guessCache: the cache, or null to stop caching
+	 */
+	public void setGuessCache(GuessCache guessCache) {
+		serving.updateAndGet(s -> new Serving(s.model, guessCache));
+	}
+
+	/**
+	 * Turn adaptive ordering of rules on or off for the current model and
+	 * any model set later, see GuessingModel.setAdaptiveOrdering(). It is
+	 * off for new guessers. It holds the same lock as setModel, so a model
+	 * set at the same time still gets the new setting.
+	 * @param adaptive: whether the rules that apply most should be
+	 * checked first
+	 */
+	public synchronized void setAdaptiveOrdering(boolean adaptive) {
+		adaptiveOrdering = adaptive;
+		getModel().setAdaptiveOrdering(adaptive);
+	}
+
+	public boolean isAdaptiveOrdering() {
+		return adaptiveOrdering;
+	}
+
+	/**
+	 * Specialize the current model, see GuessingModel.specialize()
+	 * @return true if the model guesses with specialized rules
+	 */
+	public boolean specialize() {
+		return getModel().specialize();
+	}
+
+	/**
+	 * Compile the current model, see GuessingModel.compile()
+	 * @return the compiled table
+	 */
+	public PredictionTable compile() {
+		return getModel().compile();
 	}
 
 	/**
@@ -44,240 +141,272 @@ public class PronunciationGuesser {
 	 * @param word: the target word the child will try to say. the word
 	 * should be separated by spaces for a new syllable, and dashes for a new phoneme
 	 * ie, Parker would be: P-A-R K-E-R
+	 * (words are parsed as given, cached or not, so use
+	 * GuessCache.normalize first for words typed by hand)
 	 * @return an array of guesses, where each element in the 
 	 * array is a syllable with phonemes
 	 */
 	public String guessPronunciationOfTargetWord(String word) {
+		return serving.get().guess(word, new StringBuilder());
+	}
 
-		PhonemeSequence[] targetSyllables = 
-				Helpers.convertStringToPhonemeSequence(word);
-
-		PhonemeSequence[] guessGeneral = new PhonemeSequence[targetSyllables.length];
-
-		// previous phoneme will be compared to later
-		PHONEME previousPhoneme = null;
-
-		// loop through all syllables
-		POSITION wordPosition = CONSONANT_POSITION.BEGINNING;
-		for (int i = 0; i < targetSyllables.length; i++) {
-
-			List<PHONEME> targetPhonemeSeqAtSyllable = 
-					targetSyllables[i].getSequence();
+	/**
+	 * Same guess as guessPronunciationOfTargetWord(String), written to
+	 * the end of out. Buffers are reused per thread, so nothing is allocated
+	 * apart from what out needs to grow.
+	 * @param word: the target word, as in guessPronunciationOfTargetWord(String)
+	 * @param out: where to append the guess
+	 * @throws IllegalArgumentException if the word has an invalid phoneme
+	 */
+	public void guessPronunciationOfTargetWord(CharSequence word, StringBuilder out) {
+		guess(getModel(), word, out);
+	}
 
-			// the guess phoneme sequence for this syllable
-			PhonemeSequence guessSyllableGeneral = new PhonemeSequence();
+	/**
+	 * Guess the most likely ways the child will pronounce a word, ranked
+	 * by the support of the rules behind them (see BeamSearch). Every rule
+	 * that applies to a phoneme counts, not just the first, so the most
+	 * likely guess can differ from guessPronunciationOfTargetWord(String).
+	 * Rules dropped by RuleMinimizer aren't counted either.
+	 * @param word: the target word, as in guessPronunciationOfTargetWord(String)
+	 * @param count: how many guesses to find
+	 * @return up to count guesses, most likely first
+	 * @throws IllegalArgumentException if the word has an invalid phoneme
+	 * or count is less than 1
+	 */
+	public List<RankedGuess> guessBestPronunciationsOfTargetWord(String word, int count) {
+		if (count < 1) {
+			throw new IllegalArgumentException("Count must be at least 1");
+		}
+		WordBuffer buffer = WORD_BUFFERS.get();
+		buffer.parse(word);
+		return BeamSearch.guess(getModel(), buffer, count);
+	}
 
-			POSITION syllablePosition = CONSONANT_POSITION.BEGINNING;
-			// loop through all phonemes in the syllable
-			int j = 0;
-			for (PHONEME targetPhoneme : targetPhonemeSeqAtSyllable) {
-				// ignore if the target is a vowel
-				// update to the position that we are in the syllable
-				if (j > 0) {
-					wordPosition = CONSONANT_POSITION.MIDDLE;
-					syllablePosition = CONSONANT_POSITION.MIDDLE;
-				}
-				if (j == targetPhonemeSeqAtSyllable.size() - 1) {
-					syllablePosition = CONSONANT_POSITION.END;
-					if (i == targetSyllables.length - 1) {
-						wordPosition = CONSONANT_POSITION.END;
-					}
-				}
+	/**
+	 * Same guess as guessPronunciationOfTargetWord(String), for a word
+	 * that is already split into phonemes, so nothing is parsed or
+	 * written out (or cached). ie, Parker would be the phonemes
+	 * P, AA, R, K, ER with syllables ending at {2, 5}
+	 * @param word: the phonemes of the target word, at [0, length)
+	 * @param length: number of phonemes
+	 * @param syllableEnds: for each syllable, the index after its last phoneme
+	 * @param syllableCount: number of syllables
+	 * @param out: gets the guess for each phoneme, at [0, length)
+	 * @throws IllegalArgumentException if a phoneme is null or the
+	 * syllables don't cover the phonemes in order
+	 */
+	public void guessPronunciationOfTargetWord(PHONEME[] word, int length,
+			int[] syllableEnds, int syllableCount, PHONEME[] out) {
+		WordBuffer buffer = WORD_BUFFERS.get();
+		buffer.set(word, length, syllableEnds, syllableCount);
+		getModel().guessPronunciation(buffer);
+		System.arraycopy(buffer.guesses, 0, out, 0, length);
+	}
 
-				POSITION vowelPosition = null;
-				PHONEME nextPhoneme = null;
-
-				// get next phoneme
-				if (syllablePosition.equals(CONSONANT_POSITION.END) && 
-						!wordPosition.equals(CONSONANT_POSITION.END)) {
-					// at end of syllable, but not end of word
-					// look at next syllable
-					nextPhoneme = targetSyllables[i+1].getSequence().get(0);
-				} else if (!wordPosition.equals(CONSONANT_POSITION.END)) {
-					// not at end of syllable, and not end of word
-					// look at next syllable
-					nextPhoneme = targetPhonemeSeqAtSyllable.get(j+1);
-				}
+	/**
+	 * Same as guessPronunciationOfTargetWord(PHONEME[], int, int[], int,
+	 * PHONEME[]), with phonemes given by their ordinals (see PHONEME.ordinal())
+	 * @param word: the ordinals of the target word's phonemes, at [0, length)
+	 * @param length: number of phonemes
+	 * @param syllableEnds: for each syllable, the index after its last phoneme
+	 * @param syllableCount: number of syllables
+	 * @param out: gets the ordinal of the guess for each phoneme, at [0, length)
+	 * @throws IllegalArgumentException if an ordinal isn't a phoneme's or the
+	 * syllables don't cover the phonemes in order
+	 */
+	public void guessPronunciationOfTargetWord(byte[] word, int length,
+			int[] syllableEnds, int syllableCount, byte[] out) {
+		WordBuffer buffer = WORD_BUFFERS.get();
+		buffer.set(word, length, syllableEnds, syllableCount);
+		getModel().guessPronunciation(buffer);
+		PHONEME[] guesses = buffer.guesses;
+		for (int k = 0; k < length; k++) {
+			out[k] = (byte) guesses[k].ordinal();
+		}
+	}
 
-				if (previousPhoneme != null && 
-						previousPhoneme.getGroup().equals(GROUP.VOWEL) &&
-						nextPhoneme != null && 
-						nextPhoneme.getGroup().equals(GROUP.VOWEL)) {
-					// this phoneme is in the middle of two vowels
-					vowelPosition = VOWEL_POSITION.SURROUNDED_BY;
-				} else if (previousPhoneme != null && 
-						previousPhoneme.getGroup().equals(GROUP.VOWEL)) {
-					// this phoneme comes after (the end of) a vowel
-					vowelPosition = VOWEL_POSITION.AFTER;
-				} else if (nextPhoneme != null && 
-						nextPhoneme.getGroup().equals(GROUP.VOWEL)) {
-					// this phoneme comes before (the beginning of) a vowel
-					vowelPosition = VOWEL_POSITION.BEFORE;
-				}
+	private static void guess(GuessingModel model, CharSequence word, StringBuilder out) {
+		WordBuffer buffer = WORD_BUFFERS.get();
+		buffer.parse(word);
+		model.guessPronunciation(buffer);
+		buffer.appendGuesses(out);
+	}
 
+	/**
+	 * Guess many words at once, spread across all cores.
+	 * A word that can't be guessed (ie it has an invalid phoneme) gets a
+	 * failed result instead of stopping the batch.
+	 * @param words: the target words, as in guessPronunciationOfTargetWord(String)
+	 * @return a result for each word, in the same order
+	 */
+	public GuessResult[] guessPronunciationsOfTargetWords(String[] words) {
+		// the whole batch is guessed with the same model
+		return guessPronunciations(serving.get(), words);
+	}
 
-				// If input phoneme is a vowel, return input phoneme
-				if (targetPhoneme.getGroup().equals(GROUP.VOWEL)) {
-					guessSyllableGeneral.add(targetPhoneme);
-				} else {
-					// construct this environment
-					PhoneticEnvironment e = new PhoneticEnvironment(false);
-					e.addWordPlacement(wordPosition);
-					e.addSyllablePlacement(syllablePosition);
-					e.addVowelPlacement(vowelPosition);
-					if (previousPhoneme != null && !previousPhoneme.isVowel()) {
-						e.addComesAfterPhoneme(previousPhoneme);
-					}
-					if (nextPhoneme != null && !nextPhoneme.isVowel()) {
-						e.addComesBeforePhoneme(nextPhoneme);
-					}
+	private static GuessResult[] guessPronunciations(Serving serving, String[] words) {
+		GuessResult[] results = new GuessResult[words.length];
+		ForkJoinPool.commonPool().invoke(
+				new GuessTask(serving, words, results, 0, words.length));
+		return results;
+	}
 
+	/**
+	 * Same guesses as guessPronunciationsOfTargetWords(String[]), for word
+	 * lists where many words start the same way (ie PL-, S-T-, K-R-). The
+	 * words are put in a trie, so each start is guessed once for all the
+	 * words that share it (see GuessTrie). Guesses aren't read from or
+	 * added to the cache.
+	 * @param words: the target words, as in guessPronunciationOfTargetWord(String)
+	 * @return a result for each word, in the same order
+	 */
+	public GuessResult[] guessPronunciationsOfTargetWordsByPrefix(String[] words) {
+		// the whole batch is guessed with the same model
+		GuessResult[] results = new GuessResult[words.length];
+		GuessTrie.guess(getModel(), words, results);
+		return results;
+	}
 
-					// if there is a specific rule for this phoneme in this
-					// environment, follow the specific rule.
+	/**
+	 * Same as guessPronunciationsOfTargetWords(String[])
+	 * @param words: the target words
+	 * @return a result for each word, in iteration order
+	 */
+	public List<GuessResult> guessPronunciationsOfTargetWords(Collection<String> words) {
+		return Arrays.asList(guessPronunciationsOfTargetWords(
+				words.toArray(new String[0])));
+	}
 
-					SpecificRule specificR = getSpecificRuleForPhonemeAndEnvironment(targetPhoneme, e);
-					if (specificR != null) {
-						// specific rule was found. add the transformation
-						guessSyllableGeneral.add(specificR.getActualPhoneme());
+	/**
+	 * Guess every target word in a file, writing the guesses to another.
+	 * Words are read, guessed and written a chunk at a time (the next chunk
+	 * is read while the last one is guessed), so memory stays the same
+	 * however big the file is.
+	 * @param input: one target word per line, in the same format as the
+	 * targets read by SpecificRuleFormer
+	 * @param output: gets one guess per line, in the same order. A word that
+	 * can't be guessed gets an empty line, so lines still match up
+	 * @return the number of words that couldn't be guessed
+	 * @throws IOException
+	 */
+	public int guessPronunciationsOfFile(File input, File output) throws IOException {
+		int failed = 0;
+		try (BufferedReader br = new BufferedReader(
+				new FileReader(input.getPath()), FILE_BUFFER_SIZE);
+				BufferedWriter bw = new BufferedWriter(
+						new FileWriter(output.getPath()), FILE_BUFFER_SIZE)) {
+			// the whole file is guessed with the same model
+			Serving current = serving.get();
+			String[] chunk = readChunk(br);
+			while (chunk.length > 0) {
+				final String[] words = chunk;
+				ForkJoinTask<GuessResult[]> guessing = ForkJoinPool.commonPool()
+						.submit(() -> guessPronunciations(current, words));
+				chunk = readChunk(br);
+				for (GuessResult result : guessing.join()) {
+					if (result.isGuessed()) {
+						bw.write(result.getGuess());
 					} else {
-						// no specific rule, so get general rule that can 
-						// apply for this phoneme/environment
-
-						PHONEME transformToPhoneme = 
-								getTransformationPhonemeFromGeneralizedRuleForPhonemeAndEnvironment(targetPhoneme, e);
-
-						if (transformToPhoneme == null) {
-							// this phoneme doesn't exist. don't transform
-							guessSyllableGeneral.add(targetPhoneme);
-						} else {
-							// this phoneme exists. transform it
-							guessSyllableGeneral.add(transformToPhoneme);
-						}
-
+						failed++;
 					}
-					
+					bw.newLine();
 				}
-
-				// move to next phoneme
-				j++;
-				previousPhoneme = targetPhoneme;
 			}
-			guessGeneral[i] = guessSyllableGeneral;
 		}
-
-		return convertPhonemeSequenceArrayToString(guessGeneral);
+		return failed;
 	}
 
-	private String convertPhonemeSequenceArrayToString(PhonemeSequence[] seqArr) {
-		StringBuilder sb = new StringBuilder();
-		boolean first = true;
-		for (PhonemeSequence seq : seqArr) {
-			if (!first) {
-				sb.append(" ");
-			}
-			sb.append(seq.toString());
-			first = false;
+	/**
+	 * @return up to FILE_CHUNK_SIZE upper cased lines, or none at the end
+	 */
+	private static String[] readChunk(BufferedReader br) throws IOException {
+		String[] lines = new String[FILE_CHUNK_SIZE];
+		int count = 0;
+		String line = null;
+		while (count < lines.length && (line = br.readLine()) != null) {
+			lines[count++] = line.toUpperCase(Locale.ENGLISH);
 		}
-		return sb.toString();
+		return count == lines.length ? lines : Arrays.copyOf(lines, count);
 	}
 
 	/**
-	 * Helper to get a phoneme from a generalized rule
-	 *  applicable to the given phoneme and environment
-	 * @param p: the phoneme
-	 * @param e: the environment
-	 * @return: the phoneme given by rule that applies, or null if none do
+	 * A model together with the cache of its guesses, swapped as one
 	 */
-	private PHONEME 
-		getTransformationPhonemeFromGeneralizedRuleForPhonemeAndEnvironment
-		(PHONEME targetPhoneme, PhoneticEnvironment e) {
-		
-		// loop through all rules
-		for (GeneralizedRule r : rules) {
-
-			// if this rule applies to the given phoneme and given environment
-			if (r.appliesToPhoneme(targetPhoneme) && r.appliesToEnvironment(e, true)) {
-
-				PLACE transformsToPlace = null;
-				MANNER transformsToManner = null;
-				VOICE transformsToVoice = null;
-
-				Set<FEATURE_TYPE> remainsSame = 
-						r.getFeatureTypesThatRemainSame();
-
-				FeatureProperties outputProps = r.getOutputPhonemeFeatures();
-
-				// if place remains same, dont change it.
-				// otherwise, transform it
-				if (remainsSame.contains(FEATURE_TYPE.PLACE)) {
-					transformsToPlace = targetPhoneme.getPlace();
-				} else {
-					transformsToPlace = outputProps.getSinglePlace();
-				}
+	private static final class Serving {
 
-				// if manner remains same, dont change it.
-				// otherwise, transform it
-				if (remainsSame.contains(FEATURE_TYPE.MANNER)) {
-					transformsToManner = targetPhoneme.getManner();
-				} else {
-					transformsToManner = outputProps.getSingleManner();
-				}
+		final GuessingModel model;
+		final GuessCache cache;
 
-				// if voice remains same, dont change it.
-				// otherwise, transform it
-				if (remainsSame.contains(FEATURE_TYPE.VOICE)) {
-					transformsToVoice = targetPhoneme.getVoice();
-				} else {
-					transformsToVoice = outputProps.getSingleVoice();
-				}
-
-				FeatureProperties newPhonemeFeatures = new 
-						FeatureProperties(transformsToPlace, 
-								transformsToManner, transformsToVoice);
+		Serving(GuessingModel model, GuessCache cache) {
+			this.model = model;
+			this.cache = cache;
+		}
 
-				// check if this phoneme exists
-				PHONEME transformToPhoneme = featuresToPhoneme
-						.get(newPhonemeFeatures);
-				// return the new phoneme if it is real
-				if (transformToPhoneme != null) {
-					return transformToPhoneme;
+		/**
+		 * Guess a word, through the cache if there is one. The cache is
+		 * keyed on the word as given, so it doesn't change which words
+		 * can be guessed.
+		 * @param word: the target word
+		 * @param sb: scratch space
+		 * @return the guess
+		 */
+		String guess(String word, StringBuilder sb) {
+			if (word == null) {
+				throw new IllegalArgumentException("String cannot be null.");
+			}
+			String guess = cache == null ? null : cache.get(word);
+			if (guess == null) {
+				sb.setLength(0);
+				PronunciationGuesser.guess(model, word, sb);
+				guess = sb.toString();
+				if (cache != null) {
+					cache.put(word, guess);
 				}
 			}
-
+			return guess;
 		}
-
-		// no rule applied, return null
-		return null;
 	}
 
 	/**
-	 * Helper to get a rule applicable to the given phoneme and environment
-	 * @param p: the phoneme
-	 * @param e: the environment
-	 * @return: the rule that applies, or null if none do
+	 * Guesses words[start, end), splitting the range while it's large
 	 */
-	private SpecificRule 
-	getSpecificRuleForPhonemeAndEnvironment(PHONEME p, PhoneticEnvironment e) {
-
-		Set<SpecificRule> specificRules = phonemeToSpecificRules.get(p);
-		if (specificRules == null) {
-			return null;
+	private static class GuessTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Serving serving;
+		private final String[] words;
+		private final GuessResult[] results;
+		private final int start;
+		private final int end;
+
+		GuessTask(Serving serving, String[] words, GuessResult[] results,
+				int start, int end) {
+			this.serving = serving;
+			this.words = words;
+			this.results = results;
+			this.start = start;
+			this.end = end;
 		}
-		
-		// loop through all rules
-		for (SpecificRule r : specificRules) {
-
-			// if this rule applies to the given phoneme and given environment
-			if (r.appliesToEnvironment(e, true)) {
-				
-				return r;
-			}
 
+		@Override
+		protected void compute() {
+			if (end - start > BATCH_SPLIT_SIZE) {
+				int middle = (start + end) >>> 1;
+				invokeAll(new GuessTask(serving, words, results, start, middle),
+						new GuessTask(serving, words, results, middle, end));
+				return;
+			}
+			StringBuilder sb = new StringBuilder();
+			for (int i = start; i < end; i++) {
+				try {
+					results[i] = GuessResult.guessed(words[i], serving.guess(words[i], sb));
+				} catch (IllegalArgumentException e) {
+					results[i] = GuessResult.failed(words[i], e);
+				}
+			}
 		}
-
-		// no rule applied, return null
-		return null;
 	}
 
 }
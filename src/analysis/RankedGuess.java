@@ -0,0 +1,38 @@
+package analysis;
+
+/**
+ * One of the most likely pronunciations of a target word,
+ * see PronunciationGuesser.guessBestPronunciationsOfTargetWord
+ */
+public class RankedGuess {
+
+	private final String guess;
+	private final double probability;
+
+	RankedGuess(String guess, double probability) {
+		this.guess = guess;
+		this.probability = probability;
+	}
+
+	/**
+	 * @return how the child might pronounce the word, in the same
+	 * format as guessPronunciationOfTargetWord
+	 */
+	public String getGuess() {
+		return guess;
+	}
+
+	/**
+	 * @return the product, over the word's phonemes, of the share of the
+	 * support of the rules that apply which gives the guessed phoneme
+	 */
+	public double getProbability() {
+		return probability;
+	}
+
+	@Override
+	public String toString() {
+		return guess + " (" + probability + ")";
+	}
+
+}
@@ -0,0 +1,93 @@
+package analysis;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import enums.PHONEME;
+
+/**
+ * The specific rules an observation changed, see
+ * SpecificRuleFormer.addObservation
+ */
+public class RuleChanges {
+
+	private final Set<SpecificRule> removed;
+	private final Set<SpecificRule> added;
+
+	RuleChanges(Set<SpecificRule> removed, Set<SpecificRule> added) {
+		this.removed = Collections.unmodifiableSet(removed);
+		this.added = Collections.unmodifiableSet(added);
+	}
+
+	/**
+	 * Add the differences between a phoneme's old and new rules.
+	 * Rules are equal whatever their support, so a rule whose support
+	 * changed counts as removed and added.
+	 * @param oldRules: the old rules, or null if there were none
+	 * @param newRules: the new rules
+	 * @param removed: gets the old rules that aren't in newRules
+	 * @param added: gets the new rules that weren't in oldRules
+	 */
+	static void diff(Set<SpecificRule> oldRules, Set<SpecificRule> newRules,
+			Set<SpecificRule> removed, Set<SpecificRule> added) {
+		// each old rule, found by an equal new one
+		Map<SpecificRule, SpecificRule> old = new HashMap<SpecificRule, SpecificRule>();
+		if (oldRules != null) {
+			for (SpecificRule r : oldRules) {
+				old.put(r, r);
+			}
+		}
+		for (SpecificRule r : newRules) {
+			SpecificRule o = old.remove(r);
+			if (o == null) {
+				added.add(r);
+			} else if (o.getSupport() != r.getSupport()) {
+				removed.add(o);
+				added.add(r);
+			}
+		}
+		removed.addAll(old.keySet());
+	}
+
+	/**
+	 * @return the rules that were replaced or are gone
+	 */
+	public Set<SpecificRule> getRemovedRules() {
+		return removed;
+	}
+
+	/**
+	 * @return the rules that are new or replace others
+	 */
+	public Set<SpecificRule> getAddedRules() {
+		return added;
+	}
+
+	/**
+	 * @return the target phonemes whose rules changed, ie whose
+	 * generalizations and guesses may be different now
+	 */
+	public Set<PHONEME> getChangedPhonemes() {
+		Set<PHONEME> phonemes = EnumSet.noneOf(PHONEME.class);
+		for (SpecificRule r : removed) {
+			phonemes.add(r.getTargetPhoneme());
+		}
+		for (SpecificRule r : added) {
+			phonemes.add(r.getTargetPhoneme());
+		}
+		return phonemes;
+	}
+
+	public boolean isEmpty() {
+		return removed.isEmpty() && added.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return removed.size() + " rules removed, " + added.size() + " added";
+	}
+
+}
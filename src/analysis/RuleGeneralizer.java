@@ -3,7 +3,9 @@ package analysis;
 import enums.*;
 import helpers.Helpers;
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -13,7 +15,8 @@ public class RuleGeneralizer {
 
 	Set<SpecificRule> givenRules;
 	
-	Map<DoubleFeatureProperties, GeneralizedRule> featuresToRule;
+	// keyed on the input and output feature codes packed into one long
+	Map<Long, GeneralizedRule> featuresToRule;
 	
 	
 	/**
@@ -22,14 +25,18 @@ public class RuleGeneralizer {
 	 */
 	public RuleGeneralizer(Set<SpecificRule> rules) {
 		this.givenRules = rules;
-		featuresToRule = new HashMap<DoubleFeatureProperties, GeneralizedRule>();
+		featuresToRule = new HashMap<Long, GeneralizedRule>();
 		generalize();
 	}
 	
 	private void generalize() {
 		// loop through all given rules where
-		// the rule isn't self transforming
-		for (SpecificRule r : givenRules) {
+		// the rule isn't self transforming. rules merge into
+		// each other in the order they are visited, so visit
+		// them in precedence order rather than hash order
+		SpecificRule[] ordered = givenRules.toArray(new SpecificRule[0]);
+		Arrays.sort(ordered, SpecificRule.PRECEDENCE);
+		for (SpecificRule r : ordered) {
 			// skip if transforms to self
 			if (r.transformsToSelf()) {
 				continue;
@@ -115,22 +122,23 @@ public class RuleGeneralizer {
 			
 			// PHONETIC ENV
 			
-			DoubleFeatureProperties dfp = new 
-					DoubleFeatureProperties(inputPhonemeFeatures,
-							outputPhonemeFeatures);
+			Long dfp = featuresKey(inputPhonemeFeatures, outputPhonemeFeatures);
 			
 			// get any existing rule for these input/output features
 			GeneralizedRule existingGenRule = featuresToRule.get(dfp);
 			
-			// Construct Phonetic Env for the new rule
-			PhoneticEnvironment newEnv = new PhoneticEnvironment(false);
+			// Phonetic Env for the new rule
+			PhoneticEnvironment newEnv = null;
 			
 			// get phonetic env from the current specific rule
 			PhoneticEnvironment currentEnv = r.getEnvironment();
+			int support = r.getSupport() +
+					(existingGenRule == null ? 0 : existingGenRule.getSupport());
 			
 			if (existingGenRule == null) {
 				// gen rule with exact same input/output features doesn't
 				// exist yet. make env of the gen rule = the specific rule
+				// (environments are immutable, so it can be shared)
 				
 				newEnv = currentEnv;
 			} else {
@@ -141,23 +149,25 @@ public class RuleGeneralizer {
 				
 				PhoneticEnvironment existingGenRuleEnv = 
 						existingGenRule.getPhoneticEnvironment();
+				PhoneticEnvironment.Builder envBuilder =
+						new PhoneticEnvironment.Builder(false);
 
-				newEnv.setWordPlacement(
+				envBuilder.setWordPlacement(
 						Helpers.getIntersectionOfSets(existingGenRuleEnv.getWordPlacement(),
 								currentEnv.getWordPlacement())
 						);
 
-				newEnv.setSyllablePlacement(
+				envBuilder.setSyllablePlacement(
 						Helpers.getIntersectionOfSets(existingGenRuleEnv.getSyllablePlacement(), 
 								currentEnv.getSyllablePlacement())
 						);
 
-				newEnv.setVowelPlacement(
+				envBuilder.setVowelPlacement(
 						Helpers.getIntersectionOfSets(existingGenRuleEnv.getVowelPlacement(), 
 								currentEnv.getVowelPlacement())
 						);
 
-				newEnv.setComesAfterPhonemes(
+				envBuilder.setComesAfterPhonemes(
 						Helpers.getSet1MinusSet2(existingGenRuleEnv.getComesAfterPhonemes(),
 								currentEnv.getDoesntComeAfterPhonemes()
 						));
@@ -169,16 +179,18 @@ public class RuleGeneralizer {
 				 * manner, and opposite voicing
 				 */
 				
-				newEnv = removeContrastsFromSet(newEnv, newEnv.getComesAfterPhonemes());
+				removeContrastsFromSet(envBuilder, envBuilder.getComesAfterPhonemes());
 				
-				newEnv.setComesBeforePhonemes(
+				envBuilder.setComesBeforePhonemes(
 						Helpers.getSet1MinusSet2(existingGenRuleEnv.getComesBeforePhonemes(),
 								currentEnv.getDoesntComeBeforePhonemes()
 						));
 				
 				// same as above but with comesBefore instead of after
 				
-				newEnv = removeContrastsFromSet(newEnv, newEnv.getComesBeforePhonemes());
+				removeContrastsFromSet(envBuilder, envBuilder.getComesBeforePhonemes());
+
+				newEnv = envBuilder.build();
 				
 				// delete the already existed general rule
 				featuresToRule.remove(dfp);
@@ -186,9 +198,10 @@ public class RuleGeneralizer {
 			}
 			
 			// add the new gen rule
+			// (with the support of every specific rule merged into it)
 			GeneralizedRule newGenRule = new GeneralizedRule(
 					inputPhonemeFeatures, outputPhonemeFeatures,
-					remainsSame, newEnv);
+					remainsSame, newEnv, support);
 			featuresToRule.put(dfp, newGenRule);
 		}
 	}
@@ -198,12 +211,11 @@ public class RuleGeneralizer {
 	 * of phonemes
 	 * @param e the phonetic environment to modify
 	 * @param set the set of phonemes to look at contrasts of
-	 * @return the modified environment
 	 */
-	private PhoneticEnvironment removeContrastsFromSet(PhoneticEnvironment e,
+	private void removeContrastsFromSet(PhoneticEnvironment.Builder e,
 			Set<PHONEME> set) {
 
-		Set<PHONEME> mustRemove = new HashSet<PHONEME>();
+		Set<PHONEME> mustRemove = EnumSet.noneOf(PHONEME.class);
 		
 		Set<PHONEME> oppositeSet = null;
 		if (set.equals(e.getComesAfterPhonemes())) {
@@ -238,8 +250,6 @@ public class RuleGeneralizer {
 				e.removeComesBeforePhoneme(contrast);
 			}
 		}
-		
-		return e;
 	}
 
 	public Collection<GeneralizedRule> getGeneralizedRules() {
@@ -248,31 +258,11 @@ public class RuleGeneralizer {
 	
 	
 	/**
-	 * Helper class to map input/output features as one key for a map
+	 * Helper to map input/output features as one key for a map
 	 */
-	private class DoubleFeatureProperties {
-		private FeatureProperties p1;
-		private FeatureProperties p2;
-		public DoubleFeatureProperties(FeatureProperties p1, FeatureProperties p2) {
-			this.p1 = p1;
-			this.p2 = p2;
-		}
-		@Override
-		public boolean equals(Object o) {
-			if (this == o) {
-	            return true;
-	        }
-	        if (o == null || getClass() != o.getClass()) {
-	            return false;
-	        }
-	        DoubleFeatureProperties r = (DoubleFeatureProperties) o;
-	        return p1.equals(r.p1) && p2.equals(r.p2);
-		}
-
-	    @Override
-	    public int hashCode() {
-	        return p1.hashCode() + p2.hashCode();
-	    }
+	private static Long featuresKey(FeatureProperties p1, FeatureProperties p2) {
+		return ((long) p1.getFeatureCode() << 32) |
+				(p2.getFeatureCode() & 0xFFFFFFFFL);
 	}
 	
 }
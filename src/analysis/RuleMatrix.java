@@ -0,0 +1,160 @@
+package analysis;
+
+import java.util.Arrays;
+
+import enums.PHONEME;
+
+/**
+ * The rule environments of a model as a matrix of masks, for guessing
+ * many contexts of the same consonant at once.
+ *
+ * Each row is a rule: its specific rules, then the general rules that
+ * give it a real phoneme, in the order they are checked. Rows are kept
+ * as parallel arrays (one of placements, one of phonemes after, one of
+ * phonemes before, one of outputs) with each consonant's rules next to
+ * each other. Contexts are given the same way, and a block of them is
+ * tested against one rule at a time in a plain loop over the arrays,
+ * which the JIT can unroll and vectorize.
+ *
+ * Masks are stored inverted, so a context is in a rule's environment
+ * when none of its bits are in the rule's masks.
+ */
+class RuleMatrix {
+
+	// contexts guessed per sweep, see fillContexts()
+	static final int BLOCK_SIZE = 1 << 9;
+
+	// where the syllable and vowel placements go in a placement mask
+	private static final int SYLLABLE_SHIFT = 8;
+	private static final int VOWEL_SHIFT = 16;
+
+	private static final long UNDECIDED = -1L;
+
+	// first row of each consonant index, and one after the last
+	private final int[] rowStarts;
+	private final long[] notPlacements;
+	private final long[] notComesAfter;
+	private final long[] notComesBefore;
+	private final byte[] outputs;
+
+	/**
+	 * @param phonemeToSpecificRules: specific rules indexed by target
+	 * phoneme ordinal, in the order they are checked
+	 * @param index: the general rules that apply to each phoneme
+	 */
+	RuleMatrix(SpecificRule[][] phonemeToSpecificRules, GeneralRuleIndex index) {
+		rowStarts = new int[PhoneticContext.CONSONANT_COUNT + 1];
+		int rows = 0;
+		for (int c = 0; c < PhoneticContext.CONSONANT_COUNT; c++) {
+			PHONEME p = PhoneticContext.getConsonant(c);
+			rowStarts[c] = rows;
+			rows += phonemeToSpecificRules[p.ordinal()].length + index.getRules(p).length;
+		}
+		rowStarts[PhoneticContext.CONSONANT_COUNT] = rows;
+
+		notPlacements = new long[rows];
+		notComesAfter = new long[rows];
+		notComesBefore = new long[rows];
+		outputs = new byte[rows];
+		int row = 0;
+		for (int c = 0; c < PhoneticContext.CONSONANT_COUNT; c++) {
+			PHONEME p = PhoneticContext.getConsonant(c);
+			for (SpecificRule r : phonemeToSpecificRules[p.ordinal()]) {
+				setRow(row++, r.getEnvironment(), r.getActualPhoneme());
+			}
+			GeneralizedRule[] generalRules = index.getRules(p);
+			PHONEME[] generalOutputs = index.getOutputs(p);
+			for (int i = 0; i < generalRules.length; i++) {
+				setRow(row++, generalRules[i].getPhoneticEnvironment(), generalOutputs[i]);
+			}
+		}
+	}
+
+	private void setRow(int row, PhoneticEnvironment e, PHONEME output) {
+		notPlacements[row] = ~placements(e.wordPlacement,
+				e.syllablePlacement, e.vowelPlacement);
+		notComesAfter[row] = ~e.comesAfterPhonemes;
+		notComesBefore[row] = ~e.comesBeforePhonemes;
+		outputs[row] = (byte) output.ordinal();
+	}
+
+	private static long placements(int word, int syllable, int vowel) {
+		return word | ((long) syllable << SYLLABLE_SHIFT) | ((long) vowel << VOWEL_SHIFT);
+	}
+
+	/**
+	 * Split contexts into the arrays guess() takes
+	 * @param contextIds: the contexts, from PhoneticContext
+	 * @param from: index of the first context
+	 * @param count: number of contexts
+	 * @param placements: filled at [0, count) with their placement masks
+	 * @param comesAfter: filled with the masks of the phoneme before each
+	 * @param comesBefore: filled with the masks of the phoneme after each
+	 */
+	static void fillContexts(int[] contextIds, int from, int count,
+			long[] placements, long[] comesAfter, long[] comesBefore) {
+		for (int i = 0; i < count; i++) {
+			int contextId = contextIds[from + i];
+			placements[i] = placements(PhoneticContext.getWordPlacementBit(contextId),
+					PhoneticContext.getSyllablePlacementBit(contextId),
+					PhoneticContext.getVowelPlacementBit(contextId));
+			comesAfter[i] = PhoneticContext.getComesAfterBit(contextId);
+			comesBefore[i] = PhoneticContext.getComesBeforeBit(contextId);
+		}
+	}
+
+	/**
+	 * Guess a consonant in a block of contexts, as filled by fillContexts()
+	 * @param consonantIndex: the consonant, from PhoneticContext
+	 * @param placements: the contexts' placement masks
+	 * @param comesAfter: the contexts' masks of the phoneme before
+	 * @param comesBefore: the contexts' masks of the phoneme after
+	 * @param count: number of contexts
+	 * @param work: at least count longs to work in, overwritten
+	 * @param guesses: filled at [offset, offset + count) with the
+	 * ordinal of the guess in each context
+	 * @param offset: where the block's guesses go
+	 */
+	void guess(int consonantIndex, long[] placements, long[] comesAfter,
+			long[] comesBefore, int count, long[] work, byte[] guesses, int offset) {
+		// each context's guess, or UNDECIDED (all bits set) until a rule
+		// applies. no branches, so the loop over contexts can be vectorized
+		Arrays.fill(work, 0, count, UNDECIDED);
+
+		for (int row = rowStarts[consonantIndex], end = rowStarts[consonantIndex + 1];
+				row < end; row++) {
+			long notPlacement = notPlacements[row];
+			long notAfter = notComesAfter[row];
+			long notBefore = notComesBefore[row];
+			long output = outputs[row];
+
+			// a context takes the output of the first rule it is in
+			// (undecided gets the sign bit while any context is undecided)
+			long undecided = 0;
+			for (int i = 0; i < count; i++) {
+				long missing = (placements[i] & notPlacement) |
+						(comesAfter[i] & notAfter) | (comesBefore[i] & notBefore);
+				// all bits set if the rule applies, else 0
+				long applies = ((missing | -missing) >> 63) ^ -1L;
+				long guess = work[i];
+				// guesses are never negative, so only UNDECIDED has the
+				// sign bit, and only undecided contexts take the output
+				long take = applies & (guess >> 63);
+				guess = (guess & ~take) | (output & take);
+				work[i] = guess;
+				undecided |= guess;
+			}
+			if (undecided >= 0) {
+				break;
+			}
+		}
+
+		// no rule applied to the rest, so the consonant stays the same
+		long target = PhoneticContext.getConsonant(consonantIndex).ordinal();
+		for (int i = 0; i < count; i++) {
+			long guess = work[i];
+			guesses[offset + i] = (byte) (guess == UNDECIDED ? target : guess);
+		}
+	}
+
+}
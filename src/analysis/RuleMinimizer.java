@@ -0,0 +1,268 @@
+package analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import enums.*;
+
+/**
+ * Removes rules that never decide a guess, so there are fewer to check.
+ * Run it on the output of SpecificRuleFormer and RuleGeneralizer, and
+ * give its rules to the PronunciationGuesser. Every guess stays the same.
+ *
+ * Rules are looked at in the order they are checked (see PRECEDENCE in
+ * SpecificRule and GeneralizedRule), and a rule is removed if it is:
+ * - dead: its environment contains no context (or, for a general rule,
+ *   it can't give a real phoneme for any consonant)
+ * - shadowed: an earlier rule applies wherever it does
+ * - redundant: wherever it applies, the first later rule that applies
+ *   (or, failing that, the fallback) gives the same phoneme
+ * Everything is checked with the environment masks, without
+ * going through contexts one by one.
+ */
+public class RuleMinimizer {
+
+	private static final PHONEME[] CONSONANTS = new PHONEME[PhoneticContext.CONSONANT_COUNT];
+	static {
+		for (int c = 0; c < CONSONANTS.length; c++) {
+			CONSONANTS[c] = PhoneticContext.getConsonant(c);
+		}
+	}
+
+	private final List<GeneralizedRule> generalRules;
+	private final Map<PHONEME, Set<SpecificRule>> phonemeToSpecificRules;
+	private int removedCount;
+
+	/**
+	 * Minimize the given rules
+	 * @param generalRules: general rules, from RuleGeneralizer
+	 * @param phonemeToSpecificRules: specific rules for each phoneme,
+	 * from SpecificRuleFormer
+	 */
+	public RuleMinimizer(Collection<GeneralizedRule> generalRules,
+			Map<PHONEME, Set<SpecificRule>> phonemeToSpecificRules) {
+		GeneralizedRule[] general = generalRules.toArray(new GeneralizedRule[0]);
+		Arrays.sort(general, GeneralizedRule.PRECEDENCE);
+		this.generalRules = minimizeGeneralRules(general);
+		removedCount += general.length - this.generalRules.size();
+
+		// specific rules fall back on the (minimized) general rules
+		GeneralRuleIndex index = new GeneralRuleIndex(
+				this.generalRules.toArray(new GeneralizedRule[0]));
+		this.phonemeToSpecificRules = new EnumMap<PHONEME, Set<SpecificRule>>(PHONEME.class);
+		for (Map.Entry<PHONEME, Set<SpecificRule>> e : phonemeToSpecificRules.entrySet()) {
+			SpecificRule[] specific = e.getValue().toArray(new SpecificRule[0]);
+			Arrays.sort(specific, SpecificRule.PRECEDENCE);
+			List<SpecificRule> kept = minimizeSpecificRules(e.getKey(), specific, index);
+			removedCount += specific.length - kept.size();
+			if (!kept.isEmpty()) {
+				this.phonemeToSpecificRules.put(e.getKey(),
+						new LinkedHashSet<SpecificRule>(kept));
+			}
+		}
+	}
+
+	/**
+	 * @return the general rules left, in the order they are checked
+	 */
+	public Collection<GeneralizedRule> getGeneralizedRules() {
+		return generalRules;
+	}
+
+	/**
+	 * @return the specific rules left for each phoneme (phonemes
+	 * with none left are missing), in the order they are checked
+	 */
+	public Map<PHONEME, Set<SpecificRule>> getPhonemeToSpecificRules() {
+		return phonemeToSpecificRules;
+	}
+
+	/**
+	 * @return the number of general and specific rules removed
+	 */
+	public int getRemovedCount() {
+		return removedCount;
+	}
+
+	/**
+	 * @param target: the phoneme the rules are for
+	 * @param rules: its specific rules, in the order they are checked
+	 * @param index: the general rules checked after them
+	 * @return the rules that are needed, in the same order
+	 */
+	private static List<SpecificRule> minimizeSpecificRules(PHONEME target,
+			SpecificRule[] rules, GeneralRuleIndex index) {
+
+		// remove dead and shadowed rules, first to last
+		List<SpecificRule> live = new ArrayList<SpecificRule>(rules.length);
+		for (SpecificRule r : rules) {
+			PhoneticEnvironment env = r.getEnvironment();
+			if (env.isEmpty()) {
+				continue;
+			}
+			boolean shadowed = false;
+			for (SpecificRule earlier : live) {
+				if (earlier.getEnvironment().containsEnvironment(env, true)) {
+					shadowed = true;
+					break;
+				}
+			}
+			if (!shadowed) {
+				live.add(r);
+			}
+		}
+
+		// remove redundant rules, last to first, so the later
+		// rules a rule is compared to are the ones that are kept
+		List<SpecificRule> kept = new ArrayList<SpecificRule>(live.size());
+		for (int i = live.size() - 1; i >= 0; i--) {
+			SpecificRule r = live.get(i);
+			PhoneticEnvironment env = r.getEnvironment();
+			PHONEME actual = r.getActualPhoneme();
+
+			// kept is last to first, so walk it backwards
+			int decided = 0; // 1 if redundant, -1 if needed
+			for (int k = kept.size() - 1; k >= 0 && decided == 0; k--) {
+				SpecificRule later = kept.get(k);
+				PhoneticEnvironment laterEnv = later.getEnvironment();
+				if (!laterEnv.overlaps(env)) {
+					continue;
+				}
+				if (!later.getActualPhoneme().equals(actual)) {
+					decided = -1;
+				} else if (laterEnv.containsEnvironment(env, true)) {
+					decided = 1;
+				}
+			}
+			if (decided == 0) {
+				// no specific rule is left to apply everywhere this one
+				// does, so the general rules (or else the target
+				// phoneme itself) decide the rest
+				decided = actual.equals(target) &&
+						!generalRulesChange(target, env, index) ? 1 : -1;
+			}
+			if (decided < 0) {
+				kept.add(r);
+			}
+		}
+
+		List<SpecificRule> ordered = new ArrayList<SpecificRule>(kept.size());
+		for (int k = kept.size() - 1; k >= 0; k--) {
+			ordered.add(kept.get(k));
+		}
+		return ordered;
+	}
+
+	/**
+	 * @return true if some general rule could turn target into
+	 * another phoneme somewhere in env
+	 */
+	private static boolean generalRulesChange(PHONEME target,
+			PhoneticEnvironment env, GeneralRuleIndex index) {
+		GeneralizedRule[] candidates = index.getRules(target);
+		PHONEME[] outputs = index.getOutputs(target);
+		for (int i = 0; i < candidates.length; i++) {
+			if (!outputs[i].equals(target) &&
+					candidates[i].getPhoneticEnvironment().overlaps(env)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param rules: general rules, in the order they are checked
+	 * @return the rules that are needed, in the same order
+	 */
+	private static List<GeneralizedRule> minimizeGeneralRules(GeneralizedRule[] rules) {
+
+		// what each rule turns each consonant into (null if
+		// it doesn't apply to it or gives no real phoneme)
+		PHONEME[][] outputs = new PHONEME[rules.length][];
+		for (int i = 0; i < rules.length; i++) {
+			outputs[i] = new PHONEME[CONSONANTS.length];
+			for (int c = 0; c < CONSONANTS.length; c++) {
+				if (rules[i].appliesToPhoneme(CONSONANTS[c])) {
+					outputs[i][c] = GuessingModel.getOutputPhoneme(rules[i], CONSONANTS[c]);
+				}
+			}
+		}
+
+		// remove dead and shadowed rules, first to last
+		List<Integer> live = new ArrayList<Integer>(rules.length);
+		for (int j = 0; j < rules.length; j++) {
+			PhoneticEnvironment env = rules[j].getPhoneticEnvironment();
+			if (env.isEmpty()) {
+				continue;
+			}
+			boolean needed = false;
+			for (int c = 0; c < CONSONANTS.length && !needed; c++) {
+				if (outputs[j][c] == null) {
+					continue;
+				}
+				// needed for this consonant unless an earlier
+				// rule turns it into something everywhere
+				needed = true;
+				for (int i : live) {
+					if (outputs[i][c] != null && rules[i].getPhoneticEnvironment()
+							.containsEnvironment(env, true)) {
+						needed = false;
+						break;
+					}
+				}
+			}
+			if (needed) {
+				live.add(j);
+			}
+		}
+
+		// remove redundant rules, last to first
+		List<Integer> kept = new ArrayList<Integer>(live.size());
+		for (int n = live.size() - 1; n >= 0; n--) {
+			int i = live.get(n);
+			PhoneticEnvironment env = rules[i].getPhoneticEnvironment();
+			boolean needed = false;
+			for (int c = 0; c < CONSONANTS.length && !needed; c++) {
+				PHONEME output = outputs[i][c];
+				if (output == null) {
+					continue;
+				}
+				int decided = 0; // 1 if redundant, -1 if needed
+				for (int k = kept.size() - 1; k >= 0 && decided == 0; k--) {
+					int later = kept.get(k);
+					PhoneticEnvironment laterEnv = rules[later].getPhoneticEnvironment();
+					if (outputs[later][c] == null || !laterEnv.overlaps(env)) {
+						continue;
+					}
+					if (!outputs[later][c].equals(output)) {
+						decided = -1;
+					} else if (laterEnv.containsEnvironment(env, true)) {
+						decided = 1;
+					}
+				}
+				if (decided == 0) {
+					// no general rule is left to apply everywhere this
+					// one does, so the rest keep the target phoneme
+					decided = output.equals(CONSONANTS[c]) ? 1 : -1;
+				}
+				needed = decided < 0;
+			}
+			if (needed) {
+				kept.add(i);
+			}
+		}
+
+		List<GeneralizedRule> ordered = new ArrayList<GeneralizedRule>(kept.size());
+		for (int k = kept.size() - 1; k >= 0; k--) {
+			ordered.add(rules[kept.get(k)]);
+		}
+		return ordered;
+	}
+
+}
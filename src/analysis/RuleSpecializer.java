@@ -0,0 +1,295 @@
+package analysis;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.IntBinaryOperator;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import enums.PHONEME;
+
+/**
+ * Turns the rules of a model into a class of their own, where every rule
+ * is an if statement comparing the context to constant masks, so the JIT
+ * can compile a model's rules like any other code.
+ *
+ * The class is written as Java source, compiled in memory with the
+ * system compiler and defined as a hidden class, which is unloaded along
+ * with the model. It only uses java.base, so it doesn't depend on the
+ * class path. Where there is no compiler (ie on a JRE, without the
+ * jdk.compiler module), nothing is made.
+ *
+ * A context is split into its placement (id / VOWEL_STRIDE) and the
+ * indexes of the consonants before and after it, and each rule into the
+ * placements and consonant indexes it applies to. Tests that every
+ * context passes are left out, and rules that apply to nothing aren't
+ * written at all.
+ */
+class RuleSpecializer {
+
+	private static final String CLASS_NAME = "SpecializedRules";
+	// rules per method, so no method is too big for the JIT to compile
+	private static final int RULES_PER_METHOD = 64;
+
+	private static final long ALL_PLACEMENTS = allBits(PhoneticContext.PLACEMENT_COUNT);
+	private static final long ALL_NEIGHBOURS = allBits(PhoneticContext.NEIGHBOUR_RADIX);
+
+	private RuleSpecializer() {
+	}
+
+	private static long allBits(int count) {
+		return count == Long.SIZE ? -1L : (1L << count) - 1;
+	}
+
+	/**
+	 * @param phonemeToSpecificRules: specific rules indexed by target
+	 * phoneme ordinal, in the order they are checked
+	 * @param index: the general rules that apply to each phoneme
+	 * @return the rules as an operator that takes a phoneme's ordinal and
+	 * a context id, and gives the ordinal of the guess, or null if there
+	 * is no system compiler
+	 * @throws IllegalStateException if the class doesn't compile or load
+	 */
+	static IntBinaryOperator specialize(SpecificRule[][] phonemeToSpecificRules,
+			GeneralRuleIndex index) {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null) {
+			return null;
+		}
+		if (PhoneticContext.PLACEMENT_COUNT > Long.SIZE ||
+				PhoneticContext.NEIGHBOUR_RADIX > Long.SIZE) {
+			throw new IllegalStateException("Placements and neighbours must fit in a long");
+		}
+		String source = writeSource(phonemeToSpecificRules, index);
+		byte[] bytes = compile(compiler, source);
+		MethodHandles.Lookup lookup;
+		try {
+			lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+		} catch (IllegalAccessException | LinkageError e) {
+			throw new IllegalStateException("Specialized rules couldn't be defined", e);
+		}
+		try {
+			return (IntBinaryOperator) lookup.findConstructor(lookup.lookupClass(),
+					MethodType.methodType(void.class)).invoke();
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new IllegalStateException("Specialized rules couldn't be made", t);
+		}
+	}
+
+	/**
+	 * @return the class file
+	 * @throws IllegalStateException with the compiler's errors if the
+	 * source doesn't compile
+	 */
+	private static byte[] compile(JavaCompiler compiler, String source) {
+		ByteArrayOutputStream classFile = new ByteArrayOutputStream();
+		JavaFileObject sourceFile = new SimpleJavaFileObject(
+				URI.create("string:///analysis/" + CLASS_NAME + ".java"),
+				JavaFileObject.Kind.SOURCE) {
+			@Override
+			public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+				return source;
+			}
+		};
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+		StandardJavaFileManager standard = compiler.getStandardFileManager(diagnostics, null, null);
+		try (ForwardingJavaFileManager<StandardJavaFileManager> fileManager =
+				new ForwardingJavaFileManager<StandardJavaFileManager>(standard) {
+			@Override
+			public JavaFileObject getJavaFileForOutput(Location location,
+					String className, JavaFileObject.Kind kind, FileObject sibling) {
+				return new SimpleJavaFileObject(URI.create("bytes:///" + className
+						.replace('.', '/') + kind.extension), kind) {
+					@Override
+					public OutputStream openOutputStream() {
+						return classFile;
+					}
+				};
+			}
+		}) {
+			List<String> options = Arrays.asList("-proc:none", "-g:none", "-nowarn");
+			boolean compiled = compiler.getTask(null, fileManager, diagnostics, options,
+					null, Collections.singletonList(sourceFile)).call();
+			if (!compiled) {
+				StringBuilder sb = new StringBuilder("Specialized rules didn't compile:");
+				for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+					if (d.getKind() == Diagnostic.Kind.ERROR) {
+						sb.append("\n").append(d.getLineNumber()).append(": ")
+								.append(d.getMessage(Locale.ENGLISH));
+					}
+				}
+				throw new IllegalStateException(sb.toString());
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Specialized rules couldn't be compiled", e);
+		}
+		return classFile.toByteArray();
+	}
+
+	private static String writeSource(SpecificRule[][] phonemeToSpecificRules,
+			GeneralRuleIndex index) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("package analysis;\n\n");
+		sb.append("final class ").append(CLASS_NAME)
+				.append(" implements java.util.function.IntBinaryOperator {\n\n");
+
+		sb.append("\tpublic int applyAsInt(int phoneme, int contextId) {\n");
+		sb.append("\t\tint placement = contextId / ").append(PhoneticContext.VOWEL_STRIDE).append(";\n");
+		sb.append("\t\tint previous = contextId / ").append(PhoneticContext.NEIGHBOUR_RADIX)
+				.append(" % ").append(PhoneticContext.NEIGHBOUR_RADIX).append(";\n");
+		sb.append("\t\tint next = contextId % ").append(PhoneticContext.NEIGHBOUR_RADIX).append(";\n");
+		sb.append("\t\tswitch (phoneme) {\n");
+		for (int c = 0; c < PhoneticContext.CONSONANT_COUNT; c++) {
+			int ordinal = PhoneticContext.getConsonant(c).ordinal();
+			sb.append("\t\tcase ").append(ordinal).append(": return p").append(ordinal)
+					.append("(placement, previous, next);\n");
+		}
+		// vowels stay the same
+		sb.append("\t\tdefault: return phoneme;\n");
+		sb.append("\t\t}\n\t}\n");
+
+		for (int c = 0; c < PhoneticContext.CONSONANT_COUNT; c++) {
+			writeConsonant(sb, PhoneticContext.getConsonant(c),
+					phonemeToSpecificRules, index);
+		}
+		sb.append("}\n");
+		return sb.toString();
+	}
+
+	private static void writeConsonant(StringBuilder sb, PHONEME p,
+			SpecificRule[][] phonemeToSpecificRules, GeneralRuleIndex index) {
+		// the rules in the order they are checked, as lines of code
+		StringBuilder rules = new StringBuilder();
+		int ruleCount = 0;
+		int methodCount = 0;
+		for (SpecificRule r : phonemeToSpecificRules[p.ordinal()]) {
+			if (writeRule(rules, r.getEnvironment(), r.getActualPhoneme())) {
+				ruleCount++;
+			}
+			if (ruleCount == RULES_PER_METHOD) {
+				writeRuleMethod(sb, p, methodCount++, rules);
+				ruleCount = 0;
+			}
+		}
+		GeneralizedRule[] generalRules = index.getRules(p);
+		PHONEME[] generalOutputs = index.getOutputs(p);
+		for (int i = 0; i < generalRules.length; i++) {
+			if (writeRule(rules, generalRules[i].getPhoneticEnvironment(), generalOutputs[i])) {
+				ruleCount++;
+			}
+			if (ruleCount == RULES_PER_METHOD) {
+				writeRuleMethod(sb, p, methodCount++, rules);
+				ruleCount = 0;
+			}
+		}
+		if (ruleCount > 0) {
+			writeRuleMethod(sb, p, methodCount++, rules);
+		}
+
+		// the first method with a rule that applies gives the guess,
+		// else the phoneme stays the same
+		String name = "p" + p.ordinal();
+		sb.append("\n\tprivate static int ").append(name)
+				.append("(int placement, int previous, int next) {\n");
+		if (methodCount > 0) {
+			sb.append("\t\tint guess;\n");
+		}
+		for (int m = 0; m < methodCount; m++) {
+			sb.append("\t\tif ((guess = ").append(name).append('_').append(m)
+					.append("(placement, previous, next)) >= 0) return guess;\n");
+		}
+		sb.append("\t\treturn ").append(p.ordinal()).append(";\n\t}\n");
+	}
+
+	private static void writeRuleMethod(StringBuilder sb, PHONEME p, int method,
+			StringBuilder rules) {
+		sb.append("\n\tprivate static int p").append(p.ordinal()).append('_').append(method)
+				.append("(int placement, int previous, int next) {\n");
+		sb.append(rules);
+		sb.append("\t\treturn -1;\n\t}\n");
+		rules.setLength(0);
+	}
+
+	/**
+	 * Write a rule as an if statement
+	 * @return false if the rule applies to no context, so wasn't written
+	 */
+	private static boolean writeRule(StringBuilder sb, PhoneticEnvironment e, PHONEME output) {
+		long placements = 0;
+		for (int i = 0; i < PhoneticContext.PLACEMENT_COUNT; i++) {
+			int contextId = i * PhoneticContext.VOWEL_STRIDE;
+			int vowel = PhoneticContext.getVowelPlacementBit(contextId);
+			if ((PhoneticContext.getWordPlacementBit(contextId) & e.wordPlacement) != 0 &&
+					(PhoneticContext.getSyllablePlacementBit(contextId) & e.syllablePlacement) != 0 &&
+					(vowel == 0 || (vowel & e.vowelPlacement) != 0)) {
+				placements |= 1L << i;
+			}
+		}
+		if (placements == 0) {
+			return false;
+		}
+		long previous = neighbours(e.comesAfterPhonemes);
+		long next = neighbours(e.comesBeforePhonemes);
+
+		sb.append("\t\tif (");
+		boolean test = false;
+		test |= writeTest(sb, "placement", placements, ALL_PLACEMENTS, test);
+		test |= writeTest(sb, "previous", previous, ALL_NEIGHBOURS, test);
+		test |= writeTest(sb, "next", next, ALL_NEIGHBOURS, test);
+		if (!test) {
+			sb.append("true");
+		}
+		sb.append(") return ").append(output.ordinal()).append(";\n");
+		return true;
+	}
+
+	/**
+	 * @return the consonant indexes (and NO_CONSONANT, which every
+	 * environment contains) a phoneme mask contains
+	 */
+	private static long neighbours(long phonemeMask) {
+		long mask = 1L << PhoneticContext.NO_CONSONANT;
+		for (int c = 0; c < PhoneticContext.CONSONANT_COUNT; c++) {
+			if ((phonemeMask & (1L << PhoneticContext.getConsonant(c).ordinal())) != 0) {
+				mask |= 1L << c;
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * Write the test that a bit is in a mask, unless every bit is
+	 * @return whether a test was written
+	 */
+	private static boolean writeTest(StringBuilder sb, String variable, long mask,
+			long all, boolean and) {
+		if (mask == all) {
+			return false;
+		}
+		if (and) {
+			sb.append(" && ");
+		}
+		sb.append("(0x").append(Long.toHexString(mask)).append("L >>> ")
+				.append(variable).append(" & 1L) != 0");
+		return true;
+	}
+
+}
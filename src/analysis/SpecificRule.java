@@ -1,20 +1,42 @@
 package analysis;
 
 import java.util.Collection;
+import java.util.Comparator;
 
 import enums.*;
 
 /**
  * Rule has information about phonetic environment, and
- * about what sounds change
+ * about what sounds change.
+ * Rules are immutable, so their hash is worked out once.
  */
-public class SpecificRule {
+public final class SpecificRule {
 	
-	PhoneticEnvironment environment;
+	final PhoneticEnvironment environment;
 	
 	// properties from the target sound to the pronounced sound
-	PHONEME targetPhoneme;
-	PHONEME actualPhoneme;
+	final PHONEME targetPhoneme;
+	final PHONEME actualPhoneme;
+
+	// observations the rule was formed from (not part of equality)
+	private final int support;
+
+	private final int hash;
+
+	/**
+	 * Order rules are checked in: most specific environment first,
+	 * then by actual phoneme, so the order never depends on hashing
+	 */
+	static final Comparator<SpecificRule> PRECEDENCE = (a, b) -> {
+		int c = PhoneticEnvironment.compareSpecificity(a.environment, b.environment);
+		if (c == 0) {
+			c = Integer.compare(a.actualPhoneme.ordinal(), b.actualPhoneme.ordinal());
+		}
+		if (c == 0) {
+			c = Integer.compare(a.targetPhoneme.ordinal(), b.targetPhoneme.ordinal());
+		}
+		return c;
+	};
 	
 	/**
 	 * Construct a rule with info about
@@ -27,12 +49,31 @@ public class SpecificRule {
 	public SpecificRule(PhoneticEnvironment env,
 			PHONEME targetPhoneme,
 			PHONEME actualPhoneme) {
+		this(env, targetPhoneme, actualPhoneme, 1);
+	}
+
+	/**
+	 * Construct a rule formed from a number of observations
+	 * @param env: What phonetic environment does it occur in?
+	 * @param targetPhoneme: original phoneme
+	 * @param actualPhoneme: the original transformed into this one
+	 * @param support: how many observations it was formed from
+	 */
+	public SpecificRule(PhoneticEnvironment env,
+			PHONEME targetPhoneme,
+			PHONEME actualPhoneme,
+			int support) {
 
 		this.environment = env;
 		
 		this.targetPhoneme = targetPhoneme;
 		this.actualPhoneme = actualPhoneme;
-		
+		this.support = support;
+
+		// ordinals, so the hash is the same on every run
+		int h = targetPhoneme == null ? -1 : targetPhoneme.ordinal();
+		h = 31 * h + (actualPhoneme == null ? -1 : actualPhoneme.ordinal());
+		this.hash = 31 * h + env.hashCode();
 	}
 
 	/**
@@ -45,10 +86,7 @@ public class SpecificRule {
 	 * @param globalEnv: makes a global phonetic environment if true
 	 */
 	public SpecificRule(PHONEME targetPhoneme, PHONEME actualPhoneme, boolean globalEnv) {
-		this.targetPhoneme = targetPhoneme;
-		this.actualPhoneme = actualPhoneme;
-		
-		this.environment = new PhoneticEnvironment(globalEnv);
+		this(new PhoneticEnvironment(globalEnv), targetPhoneme, actualPhoneme);
 	}
 
 	/**
@@ -58,27 +96,16 @@ public class SpecificRule {
 	 * phonetic environments
 	 */
 	public SpecificRule(boolean global) {
-		init(global);
+		this(null, null, global);
 	}
 	
 	/**
 	 * If not specified, assume global rule
 	 */
 	public SpecificRule() {
-		init(true);
-	}
-	
-	/**
-	 * Construct rule
-	 * Global rule: phonetic environment encompasses everything
-	 * @param global: whether or not to make rule apply to all
-	 * phonetic environments
-	 */
-	private void init(boolean global) {
-		environment = new PhoneticEnvironment(global);
+		this(true);
 	}
 
-
 	public PHONEME getTargetPhoneme() {
 		return targetPhoneme;
 	}
@@ -87,8 +114,20 @@ public class SpecificRule {
 		return actualPhoneme;
 	}
 	
-	public void setEnvironment(PhoneticEnvironment e) {
-		this.environment = e;
+	/**
+	 * @return how many observations (target phonemes pronounced as the
+	 * actual phoneme) the rule was formed from, at least 1
+	 */
+	public int getSupport() {
+		return support;
+	}
+	
+	/**
+	 * @param e: the environment for the new rule
+	 * @return a rule with the same phonemes and support as this one, in e
+	 */
+	public SpecificRule withEnvironment(PhoneticEnvironment e) {
+		return new SpecificRule(e, targetPhoneme, actualPhoneme, support);
 	}
 	
 	public PhoneticEnvironment getEnvironment() {
@@ -120,6 +159,15 @@ public class SpecificRule {
 	public boolean appliesToEnvironment(PhoneticEnvironment e, boolean ignoreDoesntCome) {
 		return environment.containsEnvironment(e, ignoreDoesntCome);
 	}
+
+	/**
+	 * Whether or not this rule applies to a single observed context
+	 * @param contextId: the id of the context, from PhoneticContext
+	 * @return true if the rule's environment contains the context
+	 */
+	public boolean appliesToContext(int contextId) {
+		return environment.containsContext(contextId);
+	}
 	
 	@Override
 	public String toString() {
@@ -138,7 +186,7 @@ public class SpecificRule {
 	
 	@Override
 	/**
-	 * Rule A = Rule B if everything is the same
+	 * Rule A = Rule B if everything is the same (apart from support)
 	 */
     public boolean equals(Object o) {
         if (this == o) {
@@ -148,15 +196,15 @@ public class SpecificRule {
             return false;
         }
         SpecificRule r = (SpecificRule) o;
-        return targetPhoneme.equals(r.targetPhoneme) &&
-        		actualPhoneme.equals(r.actualPhoneme) &&
+        return hash == r.hash &&
+        		targetPhoneme == r.targetPhoneme &&
+        		actualPhoneme == r.actualPhoneme &&
         		environment.equals(r.environment);
     }
 
     @Override
     public int hashCode() {
-        return targetPhoneme.hashCode() +
-        		actualPhoneme.hashCode() + environment.hashCode();
+        return hash;
     }
 
 	
@@ -191,5 +239,62 @@ public class SpecificRule {
 			System.out.println(r);
 		}
 	}
-	
+
+	/**
+	 * Mutable rule, used while rules are being formed
+	 */
+	public static final class Builder {
+
+		private final PHONEME targetPhoneme;
+		private final PHONEME actualPhoneme;
+		private final PhoneticEnvironment.Builder environment;
+		// the observation the rule was started for counts too
+		private int support = 1;
+
+		/**
+		 * @param targetPhoneme: original phoneme
+		 * @param actualPhoneme: the original transformed into this one
+		 * @param globalEnv: start with a global phonetic environment if true
+		 */
+		public Builder(PHONEME targetPhoneme, PHONEME actualPhoneme, boolean globalEnv) {
+			this.targetPhoneme = targetPhoneme;
+			this.actualPhoneme = actualPhoneme;
+			this.environment = new PhoneticEnvironment.Builder(globalEnv);
+		}
+
+		public PHONEME getTargetPhoneme() {
+			return targetPhoneme;
+		}
+
+		public PHONEME getActualPhoneme() {
+			return actualPhoneme;
+		}
+
+		/**
+		 * @return the environment, to change in place
+		 */
+		public PhoneticEnvironment.Builder getEnvironment() {
+			return environment;
+		}
+
+		public boolean transformsToSelf() {
+			return targetPhoneme.equals(actualPhoneme);
+		}
+
+		/**
+		 * Count another observation the rule agrees with
+		 */
+		public void addSupport() {
+			support++;
+		}
+
+		public int getSupport() {
+			return support;
+		}
+
+		public SpecificRule build() {
+			return new SpecificRule(environment.build(), targetPhoneme, actualPhoneme, support);
+		}
+	}
+
 }
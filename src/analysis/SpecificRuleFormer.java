@@ -1,17 +1,21 @@
 package analysis;
 import helpers.Helpers;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import enums.*;
 
@@ -25,8 +29,13 @@ public class SpecificRuleFormer {
 	// maps a phoneme to a set of rules for that phoneme
 	// (the rules alter in phonetic environments)
 	private Map<PHONEME, Set<SpecificRule>> phonemeToRules;
+
+	// the rules for each phoneme while they are being formed
+	private Map<PHONEME, List<SpecificRule.Builder>> phonemeToRuleBuilders;
 	
 	private Map<String, String> inputtedData;
+	// whether targetToPronunciation and inputtedData are kept
+	private boolean keepLexicon = true;
 
 	/**
 	 * Construct given a map of strings,
@@ -34,52 +43,105 @@ public class SpecificRuleFormer {
 	 * @param map: maps target words to pronunciation
 	 */
 	public SpecificRuleFormer(Map<String, String> map) {
-		init(map);
+		this(map, false);
+	}
+
+	/**
+	 * Construct given a map of strings, optionally forming the rules of
+	 * each target phoneme on a fork/join task of its own. The rules are
+	 * the same either way.
+	 * @param map: maps target words to pronunciation
+	 * @param parallel: whether to form rules in parallel
+	 */
+	public SpecificRuleFormer(Map<String, String> map, boolean parallel) {
+		init(map, parallel);
 	}
 
 	/**
 	 * Construct from an input file where each new line separates
-	 * a target from how it's pronounced
+	 * a target from how it's pronounced. A file can give a target more
+	 * than once, unlike a map, and every entry is trained on in file
+	 * order. getInputtedData() only has the last pronunciation of each
+	 * target, so it doesn't show the repeats.
 	 * @param file
 	 * @throws IOException
 	 */
 	public SpecificRuleFormer(File file) throws IOException {
-		Map<String, String> map = new HashMap<String, String>();
-		String target = null;
-		String actual = null;
-		int count = 0;
-    	try (BufferedReader br = new BufferedReader(new FileReader(file.getPath()))) {
-    		String line = null;
-    		while ((line = br.readLine()) != null) {
-    			if (count % 2 == 0) {
-    				target = line;
-    			} else {
-    				actual = line;
-    				map.put(target, actual);
-    			}
-    			count++;
-    		}
-    	}
-    	if (count % 2 != 0) {
-    		throw new IllegalArgumentException("Every target must have a pronunciation."
-    				+ " You have " + count + " words total.");
-    	}
-    	init(map);
+		this(file, false);
+	}
+
+	/**
+	 * Construct from an input file, see SpecificRuleFormer(File)
+	 * @param file
+	 * @param parallel: whether to form rules in parallel, see
+	 * SpecificRuleFormer(Map, boolean)
+	 * @throws IOException
+	 */
+	public SpecificRuleFormer(File file, boolean parallel) throws IOException {
+		this(file, parallel, true);
+	}
+
+	/**
+	 * Construct from an input file, see SpecificRuleFormer(File). The
+	 * file is read, parsed and trained on a chunk at a time (see
+	 * TrainingPipeline), so without the lexicon, memory stays the same
+	 * however big the file is.
+	 * @param file
+	 * @param parallel: whether to form rules in parallel, see
+	 * SpecificRuleFormer(Map, boolean)
+	 * @param keepLexicon: whether to keep the targets and pronunciations
+	 * (for getInputtedData and getMapString, which are empty otherwise)
+	 * @throws IOException
+	 */
+	public SpecificRuleFormer(File file, boolean parallel, boolean keepLexicon)
+			throws IOException {
+		this.keepLexicon = keepLexicon;
+		inputtedData = new LinkedHashMap<String, String>();
+		targetToPronunciation = 
+				new LinkedHashMap<PhonemeSequence[], PhonemeSequence[]>();
+		phonemeToRuleBuilders = new EnumMap<PHONEME, List<SpecificRule.Builder>>(PHONEME.class);
+
+		// the file is read and parsed while rules are formed
+		TrainingPipeline.run(file, chunk -> {
+			if (parallel) {
+				// the chunk's observations, indexed by target phoneme ordinal
+				Observations[] shards = new Observations[PHONEME.values().length];
+				for (TrainingPipeline.Entry e : chunk) {
+					addToShards(shards, e.targetSyllables, e.actualSyllables, e.contextIds);
+				}
+				formRules(shards);
+			} else {
+				for (TrainingPipeline.Entry e : chunk) {
+					formRules(e.targetSyllables, e.actualSyllables, e.contextIds);
+				}
+			}
+			if (keepLexicon) {
+				for (TrainingPipeline.Entry e : chunk) {
+					targetToPronunciation.put(e.targetSyllables, e.actualSyllables);
+					inputtedData.put(e.target, e.actual);
+				}
+			}
+		});
+		buildRules();
 	}
 	
 	/**
 	 * Common ground for constructors
 	 * @param map
+	 * @param parallel
 	 */
-	private void init(Map<String, String> map) {
+	private void init(Map<String, String> map, boolean parallel) {
 		if (map == null) {
 			throw new IllegalArgumentException("Map cannot be null");
 		}
 		
-		inputtedData = map;
+		// copied, since addObservation adds to it
+		inputtedData = new LinkedHashMap<String, String>(map);
 
+		// keep the order of the given map: arrays hash by identity, so a
+		// HashMap would train in a different order on every run
 		this.targetToPronunciation = 
-				new HashMap<PhonemeSequence[], PhonemeSequence[]>();
+				new LinkedHashMap<PhonemeSequence[], PhonemeSequence[]>();
 
 				// convert each string to phoneme sequence
 				for (Entry<String, String> e : map.entrySet()) {
@@ -92,14 +154,84 @@ public class SpecificRuleFormer {
 					targetToPronunciation.put(target, val);
 				}
 
-		phonemeToRules = new HashMap<PHONEME, Set<SpecificRule>>();
-		formRules();
+		// the builders are kept, so later observations can change them
+		phonemeToRuleBuilders = new EnumMap<PHONEME, List<SpecificRule.Builder>>(PHONEME.class);
+		if (parallel) {
+			formRulesInParallel();
+		} else {
+			formRules();
+		}
+		buildRules();
+	}
+
+	/**
+	 * The rules are formed, make them immutable
+	 */
+	private void buildRules() {
+		phonemeToRules = new EnumMap<PHONEME, Set<SpecificRule>>(PHONEME.class);
+		for (PHONEME p : phonemeToRuleBuilders.keySet()) {
+			phonemeToRules.put(p, buildRules(p));
+		}
 	}
 	
+	/**
+	 * @return the target words and pronunciations trained on, including
+	 * those added by addObservation (the last pronunciation of each target),
+	 * or none if the lexicon wasn't kept
+	 */
 	public Map<String, String> getInputtedData() {
 		return inputtedData;
 	}
 
+	/**
+	 * Learn from one more target word and how the child pronounced it,
+	 * as if it had been the last entry of the training map. Only the rules
+	 * of the word's consonants are formed again, so this costs about as
+	 * much as one entry of the map did. Rules already handed out don't
+	 * change (rules are immutable), so generalize and guess with the new
+	 * rules to use them; the changes say which phonemes need it.
+	 * @param target: the target word, ie P-AA-R K-ER
+	 * @param actual: how the child pronounced it, with the same syllables
+	 * and phonemes per syllable
+	 * @return the rules removed and added (a rule whose support changed
+	 * is both)
+	 * @throws IllegalArgumentException if a phoneme isn't valid
+	 */
+	public RuleChanges addObservation(String target, String actual) {
+		PhonemeSequence[] targetSyllables = 
+				Helpers.convertStringToPhonemeSequence(target.toUpperCase(Locale.ENGLISH));
+		PhonemeSequence[] actualSyllables = 
+				Helpers.convertStringToPhonemeSequence(actual.toUpperCase(Locale.ENGLISH));
+
+		Set<PHONEME> touched = formRules(targetSyllables, actualSyllables,
+				PhoneticContext.getContextIds(targetSyllables));
+		if (keepLexicon) {
+			targetToPronunciation.put(targetSyllables, actualSyllables);
+			inputtedData.put(target, actual);
+		}
+
+		Set<SpecificRule> removed = new HashSet<SpecificRule>();
+		Set<SpecificRule> added = new HashSet<SpecificRule>();
+		for (PHONEME p : touched) {
+			Set<SpecificRule> oldRules = phonemeToRules.get(p);
+			Set<SpecificRule> newRules = buildRules(p);
+			phonemeToRules.put(p, newRules);
+			RuleChanges.diff(oldRules, newRules, removed, added);
+		}
+		return new RuleChanges(removed, added);
+	}
+
+	/**
+	 * @return the rules a phoneme's builders make now
+	 */
+	private Set<SpecificRule> buildRules(PHONEME p) {
+		Set<SpecificRule> set = new HashSet<SpecificRule>();
+		for (SpecificRule.Builder b : phonemeToRuleBuilders.get(p)) {
+			set.add(b.build());
+		}
+		return set;
+	}
+
 	/**
 	 * Analyzes the training set provided, to detect rules
 	 */
@@ -108,125 +240,189 @@ public class SpecificRuleFormer {
 		// go through each entry in the lexicon
 		for (Entry<PhonemeSequence[], PhonemeSequence[]> 
 		e : targetToPronunciation.entrySet()) {
+			formRules(e.getKey(), e.getValue(),
+					PhoneticContext.getContextIds(e.getKey()));
+		}
 
-			PhonemeSequence[] targetSyllables = e.getKey();
-			PhonemeSequence[] actualSyllables = e.getValue();
+	}
 
-			if (targetSyllables.length != actualSyllables.length) {
-				throw new RuntimeException("Ommisions/Insertions"
-						+ " not implemented yet");
-			}
+	/**
+	 * Same as formRules(), with each target phoneme's rules formed on
+	 * a task of its own. A phoneme's rules only depend on the times it
+	 * was observed and their order, so the lexicon is first split into
+	 * the observations of each phoneme, in lexicon order.
+	 */
+	private void formRulesInParallel() {
+		// observations indexed by target phoneme ordinal
+		Observations[] shards = new Observations[PHONEME.values().length];
+		for (Entry<PhonemeSequence[], PhonemeSequence[]> 
+		e : targetToPronunciation.entrySet()) {
+			addToShards(shards, e.getKey(), e.getValue(),
+					PhoneticContext.getContextIds(e.getKey()));
+		}
+		formRules(shards);
+	}
 
-			// previous phoneme will be compared to later
-			PHONEME previousPhoneme = null;
-
-			// loop through all syllables
-			POSITION wordPosition = CONSONANT_POSITION.BEGINNING;
-			for (int i = 0; i < targetSyllables.length; i++) {
-
-				List<PHONEME> targetPhonemeSeq = 
-						targetSyllables[i].getSequence();
-				List<PHONEME> actualPhonemeSeq = 
-						actualSyllables[i].getSequence();
-
-				POSITION syllablePosition = CONSONANT_POSITION.BEGINNING;
-				// loop through all phonemes in the syllable
-				int j = 0;
-				for (PHONEME targetPhoneme : targetPhonemeSeq) {
-					// ignore if the target is a vowel
-					// update to the position that we are in the syllable
-					if (j > 0) {
-						wordPosition = CONSONANT_POSITION.MIDDLE;
-						syllablePosition = CONSONANT_POSITION.MIDDLE;
-					}
-					if (j == targetPhonemeSeq.size() - 1) {
-						syllablePosition = CONSONANT_POSITION.END;
-						if (i == targetSyllables.length - 1) {
-							wordPosition = CONSONANT_POSITION.END;
-						}
+	/**
+	 * Add the observations of each consonant of a lexicon entry
+	 * to the consonant's shard
+	 * @param shards: observations indexed by target phoneme ordinal
+	 * @param targetSyllables: the target word
+	 * @param actualSyllables: how the child pronounced it
+	 * @param contextIds: the context of each phoneme of the target word
+	 */
+	private void addToShards(Observations[] shards, PhonemeSequence[] targetSyllables,
+			PhonemeSequence[] actualSyllables, int[] contextIds) {
+		checkSyllables(targetSyllables, actualSyllables);
+		int k = 0;
+		for (int i = 0; i < targetSyllables.length; i++) {
+			List<PHONEME> actualPhonemeSeq = actualSyllables[i].getSequence();
+			int j = 0;
+			for (PHONEME targetPhoneme : targetSyllables[i].getSequence()) {
+				if (!targetPhoneme.getGroup().equals(GROUP.VOWEL)) {
+					Observations shard = shards[targetPhoneme.ordinal()];
+					if (shard == null) {
+						shard = new Observations(targetPhoneme, rulesFor(targetPhoneme));
+						shards[targetPhoneme.ordinal()] = shard;
 					}
+					shard.add(actualPhonemeSeq.get(j), contextIds[k]);
+				}
+				j++;
+				k++;
+			}
+		}
+	}
 
-					PHONEME actualPhoneme = actualPhonemeSeq.get(j);
-
-					POSITION vowelPosition = null;
-					PHONEME nextPhoneme = null;
-
-					// get next phoneme
-					if (syllablePosition.equals(CONSONANT_POSITION.END) && 
-							!wordPosition.equals(CONSONANT_POSITION.END)) {
-						// at end of syllable, but not end of word
-						// look at next syllable
-						nextPhoneme = targetSyllables[i+1].getSequence().get(0);
-					} else if (!wordPosition.equals(CONSONANT_POSITION.END)) {
-						// not at end of syllable, and not end of word
-						// look at next syllable
-						nextPhoneme = targetPhonemeSeq.get(j+1);
-					}
+	/**
+	 * Form each shard's rules on a fork/join task of its own
+	 * @param shards: observations indexed by target phoneme ordinal
+	 */
+	private static void formRules(Observations[] shards) {
+		List<Observations> tasks = new ArrayList<Observations>();
+		for (Observations shard : shards) {
+			if (shard != null) {
+				tasks.add(shard);
+			}
+		}
+		ForkJoinTask.invokeAll(tasks);
+	}
 
-					if (previousPhoneme != null && 
-							previousPhoneme.getGroup().equals(GROUP.VOWEL) &&
-							nextPhoneme != null && 
-							nextPhoneme.getGroup().equals(GROUP.VOWEL)) {
-						// this phoneme is in the middle of two vowels
-						vowelPosition = VOWEL_POSITION.SURROUNDED_BY;
-					} else if (previousPhoneme != null && 
-							previousPhoneme.getGroup().equals(GROUP.VOWEL)) {
-						// this phoneme comes after (the end of) a vowel
-						vowelPosition = VOWEL_POSITION.AFTER;
-					} else if (nextPhoneme != null && 
-							nextPhoneme.getGroup().equals(GROUP.VOWEL)) {
-						// this phoneme comes before (the beginning of) a vowel
-						vowelPosition = VOWEL_POSITION.BEFORE;
-					}
+	/**
+	 * Change the rules to fit one entry of the lexicon
+	 * @param targetSyllables: the target word
+	 * @param actualSyllables: how the child pronounced it
+	 * @param contextIds: the context of each phoneme of the target word
+	 * @return the consonants of the target word, whose rules may
+	 * have changed
+	 */
+	private Set<PHONEME> formRules(PhonemeSequence[] targetSyllables,
+			PhonemeSequence[] actualSyllables, int[] contextIds) {
 
-					if (!targetPhoneme.getGroup().equals(GROUP.VOWEL)) {
-						// get rules for this phoneme
-						Set<SpecificRule> rulesForPhoneme = 
-								phonemeToRules.get(targetPhoneme);
-
-						// If target phoneme and actual phoneme are the same:
-						if (targetPhoneme.equals(actualPhoneme)) {
-
-							updateRulesIfTransformToSelf(targetPhoneme, 
-									rulesForPhoneme, wordPosition, 
-									syllablePosition, vowelPosition,
-									previousPhoneme, nextPhoneme);
-
-						} else {
-							// target phoneme and actual phoneme are NOT the same
-							updateRulesIfTransformToOther(targetPhoneme, 
-									actualPhoneme,
-									rulesForPhoneme, wordPosition, 
-									syllablePosition, vowelPosition,
-									previousPhoneme, nextPhoneme);
-						}
-					}
+		checkSyllables(targetSyllables, actualSyllables);
+		Set<PHONEME> touched = EnumSet.noneOf(PHONEME.class);
+
+		// loop through all syllables
+		int k = 0;
+		for (int i = 0; i < targetSyllables.length; i++) {
+
+			List<PHONEME> targetPhonemeSeq = 
+					targetSyllables[i].getSequence();
+			List<PHONEME> actualPhonemeSeq = 
+					actualSyllables[i].getSequence();
+
+			// loop through all phonemes in the syllable
+			int j = 0;
+			for (PHONEME targetPhoneme : targetPhonemeSeq) {
 
-					// move to next phoneme
-					j++;
-					previousPhoneme = targetPhoneme;
+				PHONEME actualPhoneme = actualPhonemeSeq.get(j);
+
+				// ignore if the target is a vowel
+				if (!targetPhoneme.getGroup().equals(GROUP.VOWEL)) {
+					touched.add(targetPhoneme);
+					observe(targetPhoneme, actualPhoneme, contextIds[k],
+							rulesFor(targetPhoneme));
 				}
+
+				// move to next phoneme
+				j++;
+				k++;
 			}
+		}
+
+		return touched;
+	}
 
+	/**
+	 * Check a pronunciation has a phoneme for each phoneme of the
+	 * target, before any rule changes
+	 */
+	static void checkSyllables(PhonemeSequence[] targetSyllables,
+			PhonemeSequence[] actualSyllables) {
+		if (targetSyllables.length != actualSyllables.length) {
+			throw new RuntimeException("Ommisions/Insertions"
+					+ " not implemented yet");
 		}
+		for (int i = 0; i < targetSyllables.length; i++) {
+			if (actualSyllables[i].size() < targetSyllables[i].size()) {
+				throw new RuntimeException("Ommisions/Insertions"
+						+ " not implemented yet");
+			}
+		}
+	}
+
+	/**
+	 * @return the builders of a phoneme's rules, added to
+	 * phonemeToRuleBuilders if there weren't any
+	 */
+	private List<SpecificRule.Builder> rulesFor(PHONEME targetPhoneme) {
+		List<SpecificRule.Builder> rules = phonemeToRuleBuilders.get(targetPhoneme);
+		if (rules == null) {
+			rules = new ArrayList<SpecificRule.Builder>();
+			phonemeToRuleBuilders.put(targetPhoneme, rules);
+		}
+		return rules;
+	}
+
+	/**
+	 * Change a consonant's rules to fit one time it was pronounced.
+	 * Only rulesForPhoneme is changed, so different consonants can
+	 * be observed at the same time.
+	 * @param targetPhoneme: the consonant
+	 * @param actualPhoneme: how the child pronounced it
+	 * @param contextId: the context it was in, from PhoneticContext
+	 * @param rulesForPhoneme: the builders of the consonant's rules
+	 * (empty if it has none yet)
+	 */
+	private static void observe(PHONEME targetPhoneme, PHONEME actualPhoneme,
+			int contextId, List<SpecificRule.Builder> rulesForPhoneme) {
+		// If target phoneme and actual phoneme are the same:
+		if (targetPhoneme.equals(actualPhoneme)) {
+
+			updateRulesIfTransformToSelf(targetPhoneme, 
+					rulesForPhoneme, contextId);
 
+		} else {
+			// target phoneme and actual phoneme are NOT the same
+			updateRulesIfTransformToOther(targetPhoneme, 
+					actualPhoneme,
+					rulesForPhoneme, contextId);
+		}
 	}
 
-	private void updateRulesIfTransformToOther(PHONEME targetPhoneme, 
-			PHONEME actualPhoneme, Set<SpecificRule> rulesForPhoneme,
-			POSITION wordPosition, POSITION syllablePosition, POSITION vowelPosition,
-			PHONEME previousPhoneme, PHONEME nextPhoneme) {
+	private static void updateRulesIfTransformToOther(PHONEME targetPhoneme, 
+			PHONEME actualPhoneme, List<SpecificRule.Builder> rulesForPhoneme,
+			int contextId) {
 
 		// we check this later
 		boolean existsRuleFromTargetToActual = false;
 
 
-		if (rulesForPhoneme != null) {
+		if (!rulesForPhoneme.isEmpty()) {
 			// go through every rule for this phoneme
-			for (SpecificRule r : rulesForPhoneme) {
+			for (SpecificRule.Builder r : rulesForPhoneme) {
 
 				// phonetic environment for the rule
-				PhoneticEnvironment ruleEnv = r.getEnvironment();
+				PhoneticEnvironment.Builder ruleEnv = r.getEnvironment();
 
 				// If this rule that says target changes to itself
 				if (r.transformsToSelf()) {
@@ -235,9 +431,7 @@ public class SpecificRuleFormer {
 					// (but the child transformed it to something else)
 					// delete the the properties of this environment
 					// from the rule
-					ruleEnv = modifyProperties(ruleEnv, wordPosition, syllablePosition, 
-							vowelPosition, previousPhoneme, nextPhoneme, -1);
-					r.setEnvironment(ruleEnv);
+					modifyProperties(ruleEnv, contextId, -1);
 
 
 				} else if (!r.getActualPhoneme().equals(actualPhoneme)) {
@@ -246,9 +440,7 @@ public class SpecificRuleFormer {
 					// itself, and other than the actual phoneme
 					// delete the the properties of this environment
 					// from the rule
-					ruleEnv = modifyProperties(ruleEnv, wordPosition, syllablePosition, 
-							vowelPosition, previousPhoneme, nextPhoneme, -1);
-					r.setEnvironment(ruleEnv);
+					modifyProperties(ruleEnv, contextId, -1);
 
 				} else if (r.getActualPhoneme().equals(actualPhoneme)) {
 
@@ -256,9 +448,8 @@ public class SpecificRuleFormer {
 					// to the actual phoneme (which the child did)
 
 					// add phonetic environment to the rule
-					ruleEnv = modifyProperties(ruleEnv, wordPosition, syllablePosition, 
-							vowelPosition, previousPhoneme, nextPhoneme, 1);
-					r.setEnvironment(ruleEnv);
+					modifyProperties(ruleEnv, contextId, 1);
+					r.addSupport();
 
 					existsRuleFromTargetToActual = true;
 				}
@@ -273,76 +464,60 @@ public class SpecificRuleFormer {
 
 		if (!existsRuleFromTargetToActual) {
 			// we have to add a rule
-			SpecificRule newRule = null;
+			SpecificRule.Builder newRule = null;
 
-			if (rulesForPhoneme == null) {
+			if (rulesForPhoneme.isEmpty()) {
 				// there are no rules for this phoneme
 				// make the rule global
-				newRule = new SpecificRule(targetPhoneme, actualPhoneme, true);
+				newRule = new SpecificRule.Builder(targetPhoneme, actualPhoneme, true);
 			} else {
 				// there are rules for this phoneme
 				// make a rule just for this phonetic environment
 				// (but globally after/before)
-				newRule = new SpecificRule(targetPhoneme, actualPhoneme, false);
+				newRule = new SpecificRule.Builder(targetPhoneme, actualPhoneme, false);
 
-				// construct the phonetic environment
-				PhoneticEnvironment env = new PhoneticEnvironment(false);
 				// add to the environment
-				env = modifyProperties(env, wordPosition, syllablePosition,
-						vowelPosition, previousPhoneme, nextPhoneme, 1);
-				env.makeComesBeforeAndAfterGlobal();
-				newRule.setEnvironment(env);
+				modifyProperties(newRule.getEnvironment(), contextId, 1);
+				newRule.getEnvironment().makeComesBeforeAndAfterGlobal();
 
 			}
 
-			Set<SpecificRule> set = phonemeToRules.get(targetPhoneme);
-			if (set == null) {
-				set = new HashSet<SpecificRule>();
-			}
-			set.add(newRule);
-			phonemeToRules.put(targetPhoneme, set);
+			rulesForPhoneme.add(newRule);
 
 		}
 
 	}
 
-	private void updateRulesIfTransformToSelf(PHONEME targetPhoneme, Set<SpecificRule> rulesForPhoneme,
-			POSITION wordPosition, POSITION syllablePosition, POSITION vowelPosition,
-			PHONEME previousPhoneme, PHONEME nextPhoneme) {
+	private static void updateRulesIfTransformToSelf(PHONEME targetPhoneme,
+			List<SpecificRule.Builder> rulesForPhoneme, int contextId) {
 
 
 		// If there is not a rule that says targetPhoneme
 		// changes to itself, create one with a global
 		// phonetic environment
 
-		if (rulesForPhoneme == null) {
+		if (rulesForPhoneme.isEmpty()) {
 			// construct global rule with this transformation 
 			// make the rule (and make it global)
-			SpecificRule newRule = new SpecificRule(targetPhoneme, targetPhoneme, true);
-			// add rule to new set
-			Set<SpecificRule> set = new HashSet<SpecificRule>();
-			set.add(newRule);
-			// put new rule in map
-			phonemeToRules.put(targetPhoneme, set);
+			SpecificRule.Builder newRule =
+					new SpecificRule.Builder(targetPhoneme, targetPhoneme, true);
+			// add rule to the phoneme's rules
+			rulesForPhoneme.add(newRule);
 		} else {
 			// rules exist
 			// go through every rule for this phoneme
-			for (SpecificRule r : rulesForPhoneme) {
+			for (SpecificRule.Builder r : rulesForPhoneme) {
 				// phonetic environment for the rule
-				PhoneticEnvironment ruleEnv = r.getEnvironment();
+				PhoneticEnvironment.Builder ruleEnv = r.getEnvironment();
 
 				// If this rule that says target
 				// changes to a phoneme other than itself
-				if (!r.getTargetPhoneme().
-						equals(r.getActualPhoneme())) {
+				if (!r.transformsToSelf()) {
 
 					// this rule says to transform to a dif phoneme
 					// delete the the properties of this environment
 					// from the rule
-					ruleEnv = modifyProperties(ruleEnv, wordPosition,
-							syllablePosition, vowelPosition, 
-							previousPhoneme, nextPhoneme, -1);
-					r.setEnvironment(ruleEnv);
+					modifyProperties(ruleEnv, contextId, -1);
 
 				} else {
 					// this rule says to transform the target
@@ -355,10 +530,8 @@ public class SpecificRuleFormer {
 					// if the rule doesn't include
 					// the current phonetic environment,
 					// add it
-					ruleEnv = modifyProperties(ruleEnv, wordPosition,
-							syllablePosition, vowelPosition, previousPhoneme,
-							nextPhoneme, 1);
-					r.setEnvironment(ruleEnv);
+					modifyProperties(ruleEnv, contextId, 1);
+					r.addSupport();
 				}
 
 			}
@@ -368,19 +541,12 @@ public class SpecificRuleFormer {
 
 	/**
 	 * 
-	 * @param ruleEnv
-	 * @param wordPosition
-	 * @param syllablePosition
-	 * @param vowelPosition
-	 * @param previousPhoneme
-	 * @param nextPhoneme
+	 * @param ruleEnv: the environment to change
+	 * @param contextId: the observed context, from PhoneticContext
 	 * @param addRemove: -1 = remove, 1 = add
-	 * @return
 	 */
-	private PhoneticEnvironment modifyProperties(PhoneticEnvironment ruleEnv,
-			POSITION wordPosition, POSITION syllablePosition,
-			POSITION vowelPosition, PHONEME previousPhoneme, PHONEME nextPhoneme,
-			int addRemove) {
+	private static void modifyProperties(PhoneticEnvironment.Builder ruleEnv,
+			int contextId, int addRemove) {
 
 		boolean add = (addRemove == 1);
 		boolean remove = (addRemove == -1);
@@ -388,52 +554,15 @@ public class SpecificRuleFormer {
 			throw new IllegalArgumentException("-1 to remove, 1 to add");
 		}
 
-
+		// add or remove the word/syllable/vowel placement, and the
+		// phonemes it comes after/before (vowels aren't part of
+		// the context, so they are never added or removed)
 		if (remove) {
-			// if rule env contains this word placement
-			ruleEnv.removeWordPlacement(wordPosition);
+			ruleEnv.removeContext(contextId);
 		} else {
-			ruleEnv.addWordPlacement(wordPosition);
+			ruleEnv.addContext(contextId);
 		}
 
-		if (remove) {
-			// if rule env contains this syllable placement
-			ruleEnv.removeSyllablePlacement(syllablePosition);
-		} else {
-			ruleEnv.addSyllablePlacement(syllablePosition);
-		}
-
-		if (remove) {
-			// if rule env contains this vowel placement
-			ruleEnv.removeVowelPlacement(vowelPosition);
-		} else {
-			ruleEnv.addVowelPlacement(vowelPosition);
-		}
-
-		// if rule env contains instructions to transform
-		// after certain features, remove them
-		// UNLESS the previous phoneme is a vowel
-		if (previousPhoneme != null && !previousPhoneme.isVowel()) {
-			if (remove) {
-				ruleEnv.removeComesAfterPhoneme(previousPhoneme);
-			} else {
-				ruleEnv.addComesAfterPhoneme(previousPhoneme);
-			}
-		}
-
-		// if rule env contains instructions to transform
-		// before certain features, remove them
-		// UNLESS the next phoneme is a vowel
-		if (nextPhoneme != null && !nextPhoneme.isVowel()) {
-			if (remove) {
-				ruleEnv.removeComesBeforePhoneme(nextPhoneme);
-			} else {
-				ruleEnv.addComesBeforePhoneme(nextPhoneme);
-			}
-		}
-
-		return ruleEnv;
-
 	}
 
 	public Set<SpecificRule> getRules() {
@@ -474,4 +603,43 @@ public class SpecificRuleFormer {
 		return sb.toString();
 	}
 
+	/**
+	 * The times one target phoneme was observed, in lexicon order,
+	 * and the task that forms its rules from them
+	 */
+	private static final class Observations extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+		private static final PHONEME[] PHONEMES = PHONEME.values();
+
+		private final PHONEME targetPhoneme;
+		private final List<SpecificRule.Builder> rules;
+		// ordinal of how the child pronounced it, and the context, each time
+		private byte[] actualPhonemes = new byte[16];
+		private int[] contextIds = new int[16];
+		private int count;
+
+		Observations(PHONEME targetPhoneme, List<SpecificRule.Builder> rules) {
+			this.targetPhoneme = targetPhoneme;
+			this.rules = rules;
+		}
+
+		void add(PHONEME actualPhoneme, int contextId) {
+			if (count == contextIds.length) {
+				actualPhonemes = Arrays.copyOf(actualPhonemes, count * 2);
+				contextIds = Arrays.copyOf(contextIds, count * 2);
+			}
+			actualPhonemes[count] = (byte) actualPhoneme.ordinal();
+			contextIds[count] = contextId;
+			count++;
+		}
+
+		@Override
+		protected void compute() {
+			for (int i = 0; i < count; i++) {
+				observe(targetPhoneme, PHONEMES[actualPhonemes[i]], contextIds[i], rules);
+			}
+		}
+	}
+
 }
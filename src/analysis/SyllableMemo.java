@@ -0,0 +1,138 @@
+package analysis;
+
+import enums.PHONEME;
+
+/**
+ * Remembers the guesses for recently seen syllables of one model.
+ *
+ * A syllable's guesses only depend on its phonemes, the phoneme before it,
+ * the phoneme after it, whether the word is still at its beginning when
+ * the syllable starts (ie every earlier syllable had a single phoneme) and
+ * whether it is the last syllable. All of that is packed into a long key.
+ *
+ * The memo is a fixed size, direct mapped table: a new syllable replaces
+ * whatever was in its slot. Entries are immutable, so the table can be
+ * read and written by many threads without locking.
+ */
+class SyllableMemo {
+
+	private static final PHONEME[] PHONEMES = PHONEME.values();
+
+	// bits per phoneme in keys and guesses (ordinal + 1, 0 for none)
+	private static final int PHONEME_BITS = 6;
+	private static final long PHONEME_MASK = (1L << PHONEME_BITS) - 1;
+	// phonemes, the phonemes before and after, the two flags and a leading
+	// 1 bit (so syllables of different lengths never share a key) fit in a
+	// key, which is never negative
+	static final int MAX_SYLLABLE_LENGTH = (Long.SIZE - 4 - 2 * PHONEME_BITS) / PHONEME_BITS;
+	static final long NO_KEY = -1;
+
+	private static final int DEFAULT_SIZE = 1 << 12;
+
+	static {
+		if (PHONEMES.length >= PHONEME_MASK) {
+			throw new IllegalStateException("Too many phonemes to pack.");
+		}
+	}
+
+	private final Entry[] entries;
+	private final int mask;
+
+	SyllableMemo() {
+		this(DEFAULT_SIZE);
+	}
+
+	/**
+	 * @param size: number of slots, a power of 2
+	 */
+	SyllableMemo(int size) {
+		if (Integer.bitCount(size) != 1) {
+			throw new IllegalArgumentException("Size must be a power of 2.");
+		}
+		entries = new Entry[size];
+		mask = size - 1;
+	}
+
+	/**
+	 * Get the key of the syllable phonemes[start, end) of a word
+	 * @param phonemes: the word's phonemes
+	 * @param length: number of phonemes in the word
+	 * @param start: index of the syllable's first phoneme
+	 * @param end: index after the syllable's last phoneme
+	 * @param beginsWord: whether the word position is still the beginning
+	 * @param lastSyllable: whether this is the word's last syllable
+	 * @return the key, or NO_KEY if the syllable is too long to have one
+	 */
+	static long key(PHONEME[] phonemes, int length, int start, int end,
+			boolean beginsWord, boolean lastSyllable) {
+		if (end - start > MAX_SYLLABLE_LENGTH) {
+			return NO_KEY;
+		}
+		long key = 4 | (beginsWord ? 2 : 0) | (lastSyllable ? 1 : 0);
+		key = (key << PHONEME_BITS) | code(start > 0 ? phonemes[start - 1] : null);
+		key = (key << PHONEME_BITS) | code(end < length ? phonemes[end] : null);
+		for (int k = start; k < end; k++) {
+			key = (key << PHONEME_BITS) | code(phonemes[k]);
+		}
+		return key;
+	}
+
+	private static long code(PHONEME p) {
+		return p == null ? 0 : p.ordinal() + 1;
+	}
+
+	/**
+	 * Copy the remembered guesses of a syllable
+	 * @param key: the syllable's key
+	 * @param guesses: filled at [start, end) if the syllable is remembered
+	 * @return whether it was
+	 */
+	boolean get(long key, PHONEME[] guesses, int start, int end) {
+		Entry e = entries[slot(key)];
+		if (e == null || e.key != key) {
+			return false;
+		}
+		long packed = e.guesses;
+		for (int k = end - 1; k >= start; k--) {
+			guesses[k] = PHONEMES[(int) (packed & PHONEME_MASK) - 1];
+			packed >>>= PHONEME_BITS;
+		}
+		return true;
+	}
+
+	/**
+	 * Remember the guesses of a syllable
+	 * @param key: the syllable's key
+	 * @param guesses: the guesses, at [start, end)
+	 */
+	void put(long key, PHONEME[] guesses, int start, int end) {
+		long packed = 0;
+		for (int k = start; k < end; k++) {
+			packed = (packed << PHONEME_BITS) | code(guesses[k]);
+		}
+		entries[slot(key)] = new Entry(key, packed);
+	}
+
+	private int slot(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h >>> 32) & mask;
+	}
+
+	void clear() {
+		for (int i = 0; i < entries.length; i++) {
+			entries[i] = null;
+		}
+	}
+
+	private static final class Entry {
+
+		final long key;
+		final long guesses;
+
+		Entry(long key, long guesses) {
+			this.key = key;
+			this.guesses = guesses;
+		}
+	}
+
+}
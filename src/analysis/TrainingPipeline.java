@@ -0,0 +1,193 @@
+package analysis;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import helpers.Helpers;
+
+/**
+ * Reads a training file in three stages that run at the same time, each
+ * on its own thread: reading pairs of lines, parsing them into phonemes
+ * and contexts, and folding them into rules (on the calling thread).
+ *
+ * Stages pass chunks of CHUNK_SIZE entries through queues that hold at
+ * most QUEUE_CAPACITY chunks, so a stage that gets ahead waits for the
+ * next, and only a few chunks are ever in flight however big the file.
+ * Chunks reach the last stage in file order. The pipeline keeps nothing
+ * after a chunk is folded, so memory only grows with the file if the
+ * folder keeps the entries.
+ *
+ * An exception in any stage stops the others, and is thrown by run().
+ */
+class TrainingPipeline {
+
+	// entries passed between stages at a time
+	static final int CHUNK_SIZE = 1 << 8;
+	// chunks that can wait between two stages
+	static final int QUEUE_CAPACITY = 4;
+
+	private static final int FILE_BUFFER_SIZE = 1 << 16;
+	// sent after the last chunk, or when a stage fails
+	private static final Entry[] END = new Entry[0];
+
+	private final File file;
+	private final BlockingQueue<Entry[]> read =
+			new ArrayBlockingQueue<Entry[]>(QUEUE_CAPACITY);
+	private final BlockingQueue<Entry[]> parsed =
+			new ArrayBlockingQueue<Entry[]>(QUEUE_CAPACITY);
+	// the first exception thrown by a stage
+	private volatile Throwable failure;
+
+	/**
+	 * A target word and how the child pronounced it
+	 */
+	static final class Entry {
+
+		// as given in the file
+		final String target;
+		final String actual;
+		// filled in by the parsing stage
+		PhonemeSequence[] targetSyllables;
+		PhonemeSequence[] actualSyllables;
+		int[] contextIds;
+
+		Entry(String target, String actual) {
+			this.target = target;
+			this.actual = actual;
+		}
+	}
+
+	/**
+	 * The last stage, given each chunk of entries once it is parsed
+	 */
+	interface Folder {
+		void fold(Entry[] chunk);
+	}
+
+	private TrainingPipeline(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Read, parse and fold every entry of a training file, where each
+	 * target word is on the line before its pronunciation
+	 * @param file: the training file
+	 * @param folder: gets each chunk, in file order, on this thread
+	 * @throws IOException if the file can't be read
+	 * @throws IllegalArgumentException if a phoneme isn't valid or a
+	 * target has no pronunciation
+	 */
+	static void run(File file, Folder folder) throws IOException {
+		TrainingPipeline pipeline = new TrainingPipeline(file);
+		Thread reader = new Thread(pipeline::readStage, "training-reader");
+		Thread parser = new Thread(pipeline::parseStage, "training-parser");
+		reader.setDaemon(true);
+		parser.setDaemon(true);
+		reader.start();
+		parser.start();
+		try {
+			for (Entry[] chunk = pipeline.parsed.take(); chunk != END;
+					chunk = pipeline.parsed.take()) {
+				folder.fold(chunk);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while training", e);
+		} finally {
+			// stops the other stages if folding failed
+			reader.interrupt();
+			parser.interrupt();
+		}
+
+		Throwable t = pipeline.failure;
+		if (t instanceof IOException) {
+			throw (IOException) t;
+		} else if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		} else if (t instanceof Error) {
+			throw (Error) t;
+		}
+	}
+
+	private void readStage() {
+		int count = 0;
+		try (BufferedReader br = new BufferedReader(
+				new FileReader(file.getPath()), FILE_BUFFER_SIZE)) {
+			Entry[] chunk = new Entry[CHUNK_SIZE];
+			int size = 0;
+			String target = null;
+			String line = null;
+			while ((line = br.readLine()) != null) {
+				if (count % 2 == 0) {
+					target = line;
+				} else {
+					chunk[size++] = new Entry(target, line);
+					if (size == CHUNK_SIZE) {
+						read.put(chunk);
+						chunk = new Entry[CHUNK_SIZE];
+						size = 0;
+					}
+				}
+				count++;
+			}
+			if (count % 2 != 0) {
+				throw new IllegalArgumentException("Every target must have a pronunciation."
+						+ " You have " + count + " words total.");
+			}
+			if (size > 0) {
+				Entry[] last = new Entry[size];
+				System.arraycopy(chunk, 0, last, 0, size);
+				read.put(last);
+			}
+			read.put(END);
+		} catch (InterruptedException e) {
+			// the pipeline is stopping
+		} catch (Throwable t) {
+			fail(t, read);
+		}
+	}
+
+	private void parseStage() {
+		try {
+			for (Entry[] chunk = read.take(); chunk != END; chunk = read.take()) {
+				for (Entry e : chunk) {
+					// throws if a phoneme isn't valid
+					e.targetSyllables = Helpers.convertStringToPhonemeSequence(
+							e.target.toUpperCase(Locale.ENGLISH));
+					e.actualSyllables = Helpers.convertStringToPhonemeSequence(
+							e.actual.toUpperCase(Locale.ENGLISH));
+					e.contextIds = PhoneticContext.getContextIds(e.targetSyllables);
+				}
+				parsed.put(chunk);
+			}
+			parsed.put(END);
+		} catch (InterruptedException e) {
+			// the pipeline is stopping
+		} catch (Throwable t) {
+			fail(t, parsed);
+		}
+	}
+
+	/**
+	 * Keep the first failure, and end the stream after it
+	 * @param t: what went wrong
+	 * @param out: the failed stage's output queue
+	 */
+	private void fail(Throwable t, BlockingQueue<Entry[]> out) {
+		synchronized (this) {
+			if (failure == null) {
+				failure = t;
+			}
+		}
+		// the next stage may be waiting for a chunk, so end its input
+		// (dropping anything it hasn't taken yet)
+		out.clear();
+		out.offer(END);
+	}
+
+}
@@ -0,0 +1,212 @@
+package analysis;
+
+import helpers.Helpers;
+import enums.PHONEME;
+
+/**
+ * Reusable buffers for one word: its phonemes, where its syllables end,
+ * the context of each phoneme and the guess for each phoneme.
+ * Buffers only grow, so a WordBuffer kept per thread lets words be
+ * parsed, guessed and written out without allocating.
+ */
+class WordBuffer {
+
+	private static final PHONEME[] PHONEMES = PHONEME.values();
+
+	PHONEME[] phonemes = new PHONEME[16];
+	int length;
+	// for each syllable, the index in phonemes after its last phoneme
+	int[] syllableEnds = new int[8];
+	int syllableCount;
+
+	int[] contextIds = new int[16];
+	PHONEME[] guesses = new PHONEME[16];
+
+	/**
+	 * Parse a word the way Helpers.convertStringToPhonemeSequence does:
+	 * " " separates syllables, "-" separates phonemes, and (as with
+	 * String.split) trailing empty syllables/phonemes are dropped
+	 * @param word: the word
+	 * @throws IllegalArgumentException if a phoneme isn't valid
+	 */
+	void parse(CharSequence word) {
+		if (word == null) {
+			throw new IllegalArgumentException("String cannot be null.");
+		}
+		length = 0;
+		syllableCount = 0;
+
+		int end = word.length();
+		boolean split = indexOf(word, ' ', 0, end) != -1;
+		if (split) {
+			end = withoutTrailing(word, ' ', 0, end);
+		}
+		if (!split || end > 0) {
+			int start = 0;
+			while (true) {
+				int syllableEnd = indexOf(word, ' ', start, end);
+				if (syllableEnd == -1) {
+					syllableEnd = end;
+				}
+				parseSyllable(word, start, syllableEnd);
+				if (syllableEnd == end) {
+					break;
+				}
+				start = syllableEnd + 1;
+			}
+		}
+	}
+
+	/**
+	 * Set the word to phonemes that are already parsed
+	 * @param word: the phonemes, at [0, length)
+	 * @param length: number of phonemes
+	 * @param ends: for each syllable, the index after its last phoneme
+	 * @param count: number of syllables
+	 * @throws IllegalArgumentException if a phoneme is null or the
+	 * syllables don't cover the phonemes in order
+	 */
+	void set(PHONEME[] word, int length, int[] ends, int count) {
+		this.length = 0;
+		ensurePhonemeCapacity(length);
+		for (int k = 0; k < length; k++) {
+			if (word[k] == null) {
+				throw new IllegalArgumentException("Phoneme " + k + " is null.");
+			}
+			phonemes[k] = word[k];
+		}
+		setSyllables(length, ends, count);
+	}
+
+	/**
+	 * Same as set(PHONEME[], int, int[], int), with phonemes given by
+	 * their ordinals
+	 * @throws IllegalArgumentException if an ordinal isn't a phoneme's
+	 */
+	void set(byte[] word, int length, int[] ends, int count) {
+		this.length = 0;
+		ensurePhonemeCapacity(length);
+		for (int k = 0; k < length; k++) {
+			int ordinal = word[k];
+			if (ordinal < 0 || ordinal >= PHONEMES.length) {
+				throw new IllegalArgumentException(ordinal + " is not a valid phoneme.");
+			}
+			phonemes[k] = PHONEMES[ordinal];
+		}
+		setSyllables(length, ends, count);
+	}
+
+	private void setSyllables(int length, int[] ends, int count) {
+		syllableCount = 0;
+		if (count > syllableEnds.length) {
+			syllableEnds = new int[Math.max(count, syllableEnds.length * 2)];
+		}
+		int last = 0;
+		for (int i = 0; i < count; i++) {
+			if (ends[i] < last || ends[i] > length) {
+				throw new IllegalArgumentException("Syllable " + i + " ends at " + ends[i] +
+						", outside [" + last + ", " + length + "].");
+			}
+			last = ends[i];
+			syllableEnds[i] = last;
+		}
+		if (last != length) {
+			throw new IllegalArgumentException("Syllables end at " + last +
+					", not after the last phoneme.");
+		}
+		syllableCount = count;
+		this.length = length;
+	}
+
+	private void parseSyllable(CharSequence word, int start, int end) {
+		int last = end;
+		boolean split = indexOf(word, '-', start, end) != -1;
+		if (split) {
+			last = withoutTrailing(word, '-', start, end);
+		}
+		if (!split || last > start) {
+			int p = start;
+			while (true) {
+				int phonemeEnd = indexOf(word, '-', p, last);
+				if (phonemeEnd == -1) {
+					phonemeEnd = last;
+				}
+				PHONEME phoneme = Helpers.getPhoneme(word, p, phonemeEnd);
+				if (phoneme == null) {
+					throw new IllegalArgumentException(word.subSequence(p, phonemeEnd) +
+							" is not a valid phoneme (in " + word.subSequence(start, end) + ")");
+				}
+				ensurePhonemeCapacity(length + 1);
+				phonemes[length++] = phoneme;
+				if (phonemeEnd == last) {
+					break;
+				}
+				p = phonemeEnd + 1;
+			}
+		}
+
+		if (syllableCount == syllableEnds.length) {
+			int[] bigger = new int[syllableEnds.length * 2];
+			System.arraycopy(syllableEnds, 0, bigger, 0, syllableCount);
+			syllableEnds = bigger;
+		}
+		syllableEnds[syllableCount++] = length;
+	}
+
+	/**
+	 * @return the end of the region once trailing c's are dropped
+	 */
+	private static int withoutTrailing(CharSequence s, char c, int start, int end) {
+		while (end > start && s.charAt(end - 1) == c) {
+			end--;
+		}
+		return end;
+	}
+
+	private static int indexOf(CharSequence s, char c, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (s.charAt(i) == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void ensurePhonemeCapacity(int capacity) {
+		if (capacity > phonemes.length) {
+			int size = Math.max(capacity, phonemes.length * 2);
+			PHONEME[] bigger = new PHONEME[size];
+			System.arraycopy(phonemes, 0, bigger, 0, length);
+			phonemes = bigger;
+			contextIds = new int[size];
+			guesses = new PHONEME[size];
+		}
+	}
+
+	/**
+	 * Fill contextIds for the parsed phonemes
+	 */
+	void computeContexts() {
+		PhoneticContext.fillContextIds(phonemes, syllableEnds, syllableCount, contextIds);
+	}
+
+	/**
+	 * Write the guesses, with "-" between phonemes and " " between syllables
+	 * @param out: where to write
+	 */
+	void appendGuesses(StringBuilder out) {
+		int k = 0;
+		for (int i = 0; i < syllableCount; i++) {
+			if (i > 0) {
+				out.append(' ');
+			}
+			for (int start = k; k < syllableEnds[i]; k++) {
+				if (k > start) {
+					out.append('-');
+				}
+				out.append(guesses[k].name());
+			}
+		}
+	}
+
+}
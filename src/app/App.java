@@ -155,10 +155,12 @@ public class App extends Application {
 	}
     
     private void loadFile(File file) throws FileNotFoundException, IOException {
-    	SpecificRuleFormer rp = new SpecificRuleFormer(file);
+    	SpecificRuleFormer rp = new SpecificRuleFormer(file, true);
     	RuleGeneralizer rg = new RuleGeneralizer(rp.getRules());
-		Collection<GeneralizedRule> genRules = rg.getGeneralizedRules();
-		guesser = new PronunciationGuesser(genRules, rp.getPhonemeToSpecificRules());
+    	RuleMinimizer rm = new RuleMinimizer(rg.getGeneralizedRules(),
+    			rp.getPhonemeToSpecificRules());
+		Collection<GeneralizedRule> genRules = rm.getGeneralizedRules();
+		guesser = new PronunciationGuesser(genRules, rm.getPhonemeToSpecificRules());
 		table.getItems().removeAll(alreadyGuessed.values());
 		alreadyGuessed.clear();
 		for (Entry<String, String> e : rp.getInputtedData().entrySet()) {
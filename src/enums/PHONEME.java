@@ -87,12 +87,15 @@ public enum PHONEME {
 	private MANNER manner;
 	private PLACE place;
 	private VOICE voice;
+	// place, manner and voice packed as in FeatureProperties
+	private int featureCode;
 
 	PHONEME(GROUP group, MANNER manner, PLACE place, VOICE voice) {
 		this.group = group;
 		this.manner = manner;
 		this.place = place;
 		this.voice = voice;
+		this.featureCode = FeatureProperties.encode(place, manner, voice);
 	}
 
 	PHONEME(GROUP group, MANNER manner, PLACE place, VOICE voice, PHONEME contrast) {
@@ -100,10 +103,15 @@ public enum PHONEME {
 		this.manner = manner;
 		this.place = place;
 		this.voice = voice;
+		this.featureCode = FeatureProperties.encode(place, manner, voice);
 	}
 	
 	public FeatureProperties getProperties() {
-		return new FeatureProperties(place, manner, voice);
+		return new FeatureProperties(featureCode);
+	}
+
+	public int getFeatureCode() {
+		return featureCode;
 	}
 
 	public GROUP getGroup() {
@@ -120,6 +128,7 @@ public enum PHONEME {
 
 	public void setManner(MANNER manner) {
 		this.manner = manner;
+		this.featureCode = FeatureProperties.encode(place, manner, voice);
 	}
 
 	public PLACE getPlace() {
@@ -128,6 +137,7 @@ public enum PHONEME {
 
 	public void setPlace(PLACE place) {
 		this.place = place;
+		this.featureCode = FeatureProperties.encode(place, manner, voice);
 	}
 
 	public VOICE getVoice() {
@@ -136,6 +146,7 @@ public enum PHONEME {
 
 	public void setVoice(VOICE voice) {
 		this.voice = voice;
+		this.featureCode = FeatureProperties.encode(place, manner, voice);
 	}
 	
 	public boolean isVowel() {
@@ -1,5 +1,6 @@
 package helpers;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
@@ -10,6 +11,61 @@ import enums.PHONEME;
 
 public class Helpers {
 
+	// phonemes sorted by their name packed into an int (see nameKey)
+	private static final int[] PHONEME_NAME_KEYS;
+	private static final PHONEME[] PHONEMES_BY_NAME_KEY;
+	static {
+		PHONEME[] ps = PHONEME.values();
+		long[] keyed = new long[ps.length];
+		for (int i = 0; i < ps.length; i++) {
+			String name = ps[i].name();
+			keyed[i] = ((long) nameKey(name, 0, name.length()) << 32) | i;
+		}
+		Arrays.sort(keyed);
+		PHONEME_NAME_KEYS = new int[ps.length];
+		PHONEMES_BY_NAME_KEY = new PHONEME[ps.length];
+		for (int i = 0; i < ps.length; i++) {
+			PHONEME_NAME_KEYS[i] = (int) (keyed[i] >>> 32);
+			PHONEMES_BY_NAME_KEY[i] = ps[(int) keyed[i]];
+		}
+	}
+
+	/**
+	 * Pack up to 4 ascii characters into an int
+	 * @return the key, or -1 if the characters can't be a phoneme name
+	 */
+	private static int nameKey(CharSequence str, int start, int end) {
+		if (end - start < 1 || end - start > 4) {
+			return -1;
+		}
+		// leading 1 keeps names of different lengths apart
+		int key = 1;
+		for (int i = start; i < end; i++) {
+			char c = str.charAt(i);
+			if (c >= 128) {
+				return -1;
+			}
+			key = (key << 7) | c;
+		}
+		return key;
+	}
+
+	/**
+	 * Look up a phoneme by its name, without allocating
+	 * @param str: string containing the name
+	 * @param start: index of the name's first character
+	 * @param end: index after the name's last character
+	 * @return the phoneme, or null if there is no phoneme with that name
+	 */
+	public static PHONEME getPhoneme(CharSequence str, int start, int end) {
+		int key = nameKey(str, start, end);
+		if (key == -1) {
+			return null;
+		}
+		int i = Arrays.binarySearch(PHONEME_NAME_KEYS, key);
+		return i < 0 ? null : PHONEMES_BY_NAME_KEY[i];
+	}
+
 
 	/**
 	 * Convert string to phoneme sequence
@@ -0,0 +1,99 @@
+package tests;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import analysis.GuessCache;
+import analysis.PronunciationGuesser;
+import analysis.RuleGeneralizer;
+import analysis.SpecificRuleFormer;
+
+public class GuessCacheTest {
+
+	@Test
+	public void testNormalize() {
+		assertEquals("P-AA-T", GuessCache.normalize("p-aa-t"));
+		assertEquals("P-AA T-AA", GuessCache.normalize("  P-AA \t T-AA\n"));
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() {
+		GuessCache cache = new GuessCache(1);
+		cache.put("P-AA-T", "P-AA-T");
+		cache.put("K-AE-T", "T-AE-T");
+		assertEquals(1, cache.size());
+		assertNull(cache.get("P-AA-T"));
+		assertEquals("T-AE-T", cache.get("K-AE-T"));
+		assertEquals(1, cache.getEvictionCount());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+
+		cache = new GuessCache(100);
+		for (int i = 0; i < 1000; i++) {
+			cache.put("W" + i, "W" + i);
+		}
+		assertEquals(100, cache.size());
+		assertEquals(900, cache.getEvictionCount());
+	}
+
+	@Test
+	public void testGuesserUsesCache() {
+		Map<String, String> map = new HashMap<String, String>();
+		map.put("K-AE-T", "T-AE-T");
+		map.put("D-EY", "D-EY");
+
+		SpecificRuleFormer rp = new SpecificRuleFormer(map);
+		RuleGeneralizer rg = new RuleGeneralizer(rp.getRules());
+		PronunciationGuesser guesser = new PronunciationGuesser(
+				rg.getGeneralizedRules(), rp.getPhonemeToSpecificRules());
+		GuessCache cache = new GuessCache(16);
+		guesser.setGuessCache(cache);
+
+		assertEquals("T-UH-M", guesser.guessPronunciationOfTargetWord("K-UH-M"));
+		assertEquals("T-UH-M", guesser.guessPronunciationOfTargetWord(
+				GuessCache.normalize(" k-uh-m")));
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+
+		guesser.guessPronunciationsOfTargetWords(new String[] {"K-UH-M", "G-EY-M"});
+		assertEquals(2, cache.getHitCount());
+		assertEquals(2, cache.size());
+
+		// without a cache, guesses are the same
+		guesser.setGuessCache(null);
+		assertEquals("T-UH-M", guesser.guessPronunciationOfTargetWord("K-UH-M"));
+	}
+
+	@Test
+	public void testCacheDoesntChangeValidWords() {
+		Map<String, String> map = new HashMap<String, String>();
+		map.put("K-AE-T", "T-AE-T");
+
+		SpecificRuleFormer rp = new SpecificRuleFormer(map);
+		RuleGeneralizer rg = new RuleGeneralizer(rp.getRules());
+		PronunciationGuesser guesser = new PronunciationGuesser(
+				rg.getGeneralizedRules(), rp.getPhonemeToSpecificRules());
+
+		// a lower case word, and an empty syllable between two spaces
+		String[] words = {"k-uh-m", "K-UH-M  K-AE"};
+		GuessCache[] caches = {new GuessCache(16), null};
+		for (GuessCache cache : caches) {
+			guesser.setGuessCache(cache);
+			for (String word : words) {
+				try {
+					guesser.guessPronunciationOfTargetWord(word);
+					fail(word);
+				} catch (IllegalArgumentException e) {
+					// expected
+				}
+				assertFalse(guesser.guessPronunciationsOfTargetWords(
+						new String[] {word})[0].isGuessed());
+			}
+		}
+	}
+
+}
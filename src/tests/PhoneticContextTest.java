@@ -0,0 +1,56 @@
+package tests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import analysis.*;
+import enums.*;
+import helpers.Helpers;
+
+public class PhoneticContextTest {
+
+	@Test
+	public void testEveryIdDecodesToItself() {
+		for (int id = 0; id < PhoneticContext.CONTEXT_COUNT; id++) {
+			assertEquals(id, PhoneticContext.getContextId(
+					PhoneticContext.getWordPosition(id),
+					PhoneticContext.getSyllablePosition(id),
+					PhoneticContext.getVowelPosition(id),
+					PhoneticContext.getPreviousConsonant(id),
+					PhoneticContext.getNextConsonant(id)));
+		}
+	}
+
+	@Test
+	public void testContextsOfWord() {
+		PhonemeSequence[] word =
+				Helpers.convertStringToPhonemeSequence("S-T-R-IH-P");
+		int[] ids = PhoneticContext.getContextIds(word);
+		assertEquals(5, ids.length);
+
+		// S: beginning of word and syllable, before T
+		assertEquals(CONSONANT_POSITION.BEGINNING, PhoneticContext.getWordPosition(ids[0]));
+		assertEquals(CONSONANT_POSITION.BEGINNING, PhoneticContext.getSyllablePosition(ids[0]));
+		assertNull(PhoneticContext.getVowelPosition(ids[0]));
+		assertNull(PhoneticContext.getPreviousConsonant(ids[0]));
+		assertEquals(PHONEME.T, PhoneticContext.getNextConsonant(ids[0]));
+
+		// R: middle, after T, before a vowel
+		assertEquals(CONSONANT_POSITION.MIDDLE, PhoneticContext.getWordPosition(ids[2]));
+		assertEquals(VOWEL_POSITION.BEFORE, PhoneticContext.getVowelPosition(ids[2]));
+		assertEquals(PHONEME.T, PhoneticContext.getPreviousConsonant(ids[2]));
+		assertNull(PhoneticContext.getNextConsonant(ids[2]));
+
+		// P: end of word, after a vowel
+		assertEquals(CONSONANT_POSITION.END, PhoneticContext.getWordPosition(ids[4]));
+		assertEquals(CONSONANT_POSITION.END, PhoneticContext.getSyllablePosition(ids[4]));
+		assertEquals(VOWEL_POSITION.AFTER, PhoneticContext.getVowelPosition(ids[4]));
+
+		// the environment built from a context contains only that context
+		PhoneticEnvironment e = PhoneticContext.toEnvironment(ids[2]);
+		assertTrue(e.containsContext(ids[2]));
+		assertFalse(e.containsContext(ids[0]));
+	}
+
+}
@@ -2,16 +2,34 @@ package tests;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import javax.tools.ToolProvider;
+
+import org.junit.Assume;
 import org.junit.Test;
 
 import analysis.GeneralizedRule;
+import analysis.GuessResult;
+import analysis.GuessingModel;
 import analysis.PronunciationGuesser;
+import analysis.RankedGuess;
 import analysis.RuleGeneralizer;
+import analysis.SpecificRule;
 import analysis.SpecificRuleFormer;
+import enums.PHONEME;
 
 public class PronunciationGuesserTest {
 
@@ -152,5 +170,410 @@ public class PronunciationGuesserTest {
 		guess = guesser.guessPronunciationOfTargetWord("CH-AA-P");
 		assertEquals("SH-AA-P", guess);
 	}
+	
+	@Test
+	public void testCompiledGuessesMatchRules() {
+		Map<String, String> map = new HashMap<String, String>();
+		map.put("D-UH-K", "D-UH-K");
+		map.put("P-IH-G", "P-IH-K");
+		map.put("P-IH G-IY", "P-IH G-IY");
+		map.put("D-AO-G", "D-AO-K");
+		map.put("D-AO G-IY", "D-AO G-IY");
+		map.put("R-UH-B", "W-UH-P");
+		map.put("R-UH B-IH-NG", "W-UH B-IH-NG");
+		map.put("S-L-IY-P", "S-W-IY-P");
+		
+		SpecificRuleFormer rp = new SpecificRuleFormer(map);
+		RuleGeneralizer rg = new RuleGeneralizer(rp.getRules());
+		PronunciationGuesser guesser = new PronunciationGuesser(
+				rg.getGeneralizedRules(), rp.getPhonemeToSpecificRules());
+		
+		String[] words = {"D-UH-G", "L-AH K-IY", "T-AE-G", "R-AE G-IY",
+				"L-IH-D", "S-T-R-IH-P", "G-EY-Z K-UH-M"};
+		String[] guesses = new String[words.length];
+		for (int i = 0; i < words.length; i++) {
+			guesses[i] = guesser.guessPronunciationOfTargetWord(words[i]);
+		}
+		
+		guesser.compile();
+		for (int i = 0; i < words.length; i++) {
+			assertEquals(guesses[i], guesser.guessPronunciationOfTargetWord(words[i]));
+		}
+	}
+	
+	@Test
+	public void testGuessesDontDependOnRuleOrder() {
+		Map<String, String> map = new HashMap<String, String>();
+		map.put("P-IH-G", "P-IH-K");
+		map.put("D-AO-G", "D-AO-K");
+		map.put("D-AO G-IY", "D-AO G-IY");
+		map.put("R-UH-B", "W-UH-P");
+		map.put("R-UH B-IH-NG", "W-UH B-IH-NG");
+		map.put("S-L-IY-P", "S-W-IY-P");
+		map.put("TH-IH-NG", "F-IH-NG");
+		
+		SpecificRuleFormer rp = new SpecificRuleFormer(map);
+		RuleGeneralizer rg = new RuleGeneralizer(rp.getRules());
+		
+		// the same rules, given in the opposite order
+		List<GeneralizedRule> generalRules = 
+				new ArrayList<GeneralizedRule>(rg.getGeneralizedRules());
+		Collections.reverse(generalRules);
+		Map<PHONEME, Set<SpecificRule>> specificRules = 
+				new HashMap<PHONEME, Set<SpecificRule>>();
+		for (Map.Entry<PHONEME, Set<SpecificRule>> e : 
+				rp.getPhonemeToSpecificRules().entrySet()) {
+			List<SpecificRule> rules = new ArrayList<SpecificRule>(e.getValue());
+			Collections.reverse(rules);
+			specificRules.put(e.getKey(), new LinkedHashSet<SpecificRule>(rules));
+		}
+		
+		PronunciationGuesser guesser = new PronunciationGuesser(
+				rg.getGeneralizedRules(), rp.getPhonemeToSpecificRules());
+		PronunciationGuesser reversed = new PronunciationGuesser(
+				generalRules, specificRules);
+		
+		String[] words = {"D-UH-G", "L-AH K-IY", "T-AE-G", "R-AE G-IY",
+				"B-IH-G", "S-T-R-IH-P", "TH-AO-T", "G-EY-Z K-UH-M"};
+		for (String word : words) {
+			assertEquals(guesser.guessPronunciationOfTargetWord(word),
+					reversed.guessPronunciationOfTargetWord(word));
+		}
+	}
+	
+	@Test
+	public void testAdaptiveOrdering() {
+		Map<String, String> map = new HashMap<String, String>();
+		map.put("K-AE-T", "T-AE-T");
+		map.put("G-OW", "D-OW");
+		map.put("R-EH-D", "W-EH-D");
+		map.put("R-AE-T", "R-AE-T");
+		map.put("L-AY-T", "W-AY-T");
+		
+		SpecificRuleFormer rp = new SpecificRuleFormer(map);
+		RuleGeneralizer rg = new RuleGeneralizer(rp.getRules());
+		PronunciationGuesser guesser = new PronunciationGuesser(
+				rg.getGeneralizedRules(), rp.getPhonemeToSpecificRules());
+		PronunciationGuesser compiled = new PronunciationGuesser(
+				rg.getGeneralizedRules(), rp.getPhonemeToSpecificRules());
+		compiled.compile();
+		guesser.setGuessCache(null);
+		guesser.setAdaptiveOrdering(true);
+		GuessingModel model = guesser.getModel();
+		assertTrue(model.isAdaptiveOrdering());
+		
+		// R becomes W at the start of a word, and stays R elsewhere
+		List<SpecificRule> before = model.getSpecificRules(PHONEME.R);
+		assertEquals(2, before.size());
+		assertEquals(PHONEME.W, before.get(0).getActualPhoneme());
+		
+		// more Rs that stay R (each syllable is guessed once, then
+		// remembered, so they are all different)
+		String[] words = {"AA-R", "K-AA-R", "B-IH-R", "D-EH-R", "S-T-AO-R",
+				"P-UH-R", "G-EY-R", "R-AH-N", "B-AA-R N-IY"};
+		for (String word : words) {
+			assertEquals(compiled.guessPronunciationOfTargetWord(word),
+					guesser.guessPronunciationOfTargetWord(word));
+		}
+		model.reorderRules();
+		List<SpecificRule> after = model.getSpecificRules(PHONEME.R);
+		assertEquals(before.get(1), after.get(0));
+		assertEquals(before.get(0), after.get(1));
+		
+		// guesses are the same in the new order
+		String[] others = {"R-EH-D", "R-OW-D", "K-AA-R T-UH-N", "R-AE-T",
+				"AA-R-M", "F-AO-R R-AH-N", "K-UH-M", "L-EH-G", "G-EY-M"};
+		for (String word : others) {
+			assertEquals(compiled.guessPronunciationOfTargetWord(word),
+					guesser.guessPronunciationOfTargetWord(word));
+		}
+		
+		// models set later reorder their rules too
+		guesser.setModel(new GuessingModel(
+				rg.getGeneralizedRules(), rp.getPhonemeToSpecificRules()));
+		assertTrue(guesser.getModel().isAdaptiveOrdering());
+	}
+	
+	@Test
+	public void testSpecializedRules() {
+		Map<String, String> map = new HashMap<String, String>();
+		map.put("K-AE-T", "T-AE-T");
+		map.put("G-OW", "D-OW");
+		map.put("R-EH-D", "W-EH-D");
+		map.put("S-T-AA-P", "S-D-AA-P");
+		map.put("L-AY-T", "W-AY-T");
+		
+		SpecificRuleFormer rp = new SpecificRuleFormer(map);
+		RuleGeneralizer rg = new RuleGeneralizer(rp.getRules());
+		PronunciationGuesser guesser = new PronunciationGuesser(
+				rg.getGeneralizedRules(), rp.getPhonemeToSpecificRules());
+		PronunciationGuesser compiled = new PronunciationGuesser(
+				rg.getGeneralizedRules(), rp.getPhonemeToSpecificRules());
+		compiled.compile();
+		guesser.setGuessCache(null);
+		// needs the system compiler, which a JRE doesn't have
+		Assume.assumeTrue(ToolProvider.getSystemJavaCompiler() != null);
+		assertTrue(guesser.specialize());
+		assertTrue(guesser.getModel().isSpecialized());
+		
+		String[] words = {"K-UH-M", "R-AH-N", "L-EH-G", "G-EY-M", "R-OW-D",
+				"B-AE-K", "S-T-R-IH-NG", "L-IH-T-L", "K-R-AY", "D-AO-G",
+				"S-K-W-IH-R AH-L", "G-R-IY-N T-R-IY", "AE-K-T K-L-IY-N"};
+		for (String word : words) {
+			assertEquals(compiled.guessPronunciationOfTargetWord(word),
+					guesser.guessPronunciationOfTargetWord(word));
+		}
+	}
+	
+	@Test
+	public void testGuessesOfParsedWords() {
+		Map<String, String> map = new HashMap<String, String>();
+		map.put("K-AE-T", "T-AE-T");
+		map.put("G-OW", "D-OW");
+		map.put("R-EH-D", "W-EH-D");
+		
+		SpecificRuleFormer rp = new SpecificRuleFormer(map);
+		RuleGeneralizer rg = new RuleGeneralizer(rp.getRules());
+		PronunciationGuesser guesser = new PronunciationGuesser(
+				rg.getGeneralizedRules(), rp.getPhonemeToSpecificRules());
+		
+		// K-AE-T G-OW R-EH-D, with room to spare
+		PHONEME[] word = {PHONEME.K, PHONEME.AE, PHONEME.T, PHONEME.G, PHONEME.OW,
+				PHONEME.R, PHONEME.EH, PHONEME.D, null};
+		int[] syllableEnds = {3, 5, 8, 0};
+		PHONEME[] guesses = new PHONEME[word.length];
+		guesser.guessPronunciationOfTargetWord(word, 8, syllableEnds, 3, guesses);
+		byte[] ordinals = new byte[word.length];
+		for (int i = 0; i < 8; i++) {
+			ordinals[i] = (byte) word[i].ordinal();
+		}
+		byte[] guessedOrdinals = new byte[word.length];
+		guesser.guessPronunciationOfTargetWord(ordinals, 8, syllableEnds, 3, guessedOrdinals);
+		
+		String[] syllables = guesser.guessPronunciationOfTargetWord(
+				"K-AE-T G-OW R-EH-D").split(" ");
+		int k = 0;
+		for (String syllable : syllables) {
+			for (String p : syllable.split("-")) {
+				assertEquals(PHONEME.valueOf(p), guesses[k]);
+				assertEquals(PHONEME.valueOf(p).ordinal(), guessedOrdinals[k]);
+				k++;
+			}
+		}
+		assertEquals(8, k);
+		assertNull(guesses[8]);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testParsedWordWithBadSyllables() {
+		PronunciationGuesser guesser = new PronunciationGuesser(
+				new ArrayList<GeneralizedRule>(), new HashMap<PHONEME, Set<SpecificRule>>());
+		PHONEME[] word = {PHONEME.K, PHONEME.AE, PHONEME.T};
+		// the syllables end before the last phoneme
+		guesser.guessPronunciationOfTargetWord(word, 3, new int[] {2}, 1, new PHONEME[3]);
+	}
+	
+	@Test
+	public void testBestPronunciations() {
+		Map<String, String> map = new HashMap<String, String>();
+		map.put("G-OW", "D-OW");
+		map.put("G-AE", "D-AE");
+		map.put("K-IY", "K-IY");
+		
+		SpecificRuleFormer rp = new SpecificRuleFormer(map);
+		for (SpecificRule r : rp.getPhonemeToSpecificRules().get(PHONEME.G)) {
+			// formed from G-OW and G-AE
+			assertEquals(2, r.getSupport());
+		}
+		RuleGeneralizer rg = new RuleGeneralizer(rp.getRules());
+		PronunciationGuesser guesser = new PronunciationGuesser(
+				rg.getGeneralizedRules(), rp.getPhonemeToSpecificRules());
+		
+		// K stays K by its specific rule (support 1), and becomes T by
+		// the general rule from G to D (support 2)
+		String word = "K-AA G-AA-K";
+		assertEquals("K-AA D-AA-K", guesser.guessPronunciationOfTargetWord(word));
+		List<RankedGuess> guesses = guesser.guessBestPronunciationsOfTargetWord(word, 8);
+		assertEquals(4, guesses.size());
+		assertEquals("T-AA D-AA-T", guesses.get(0).getGuess());
+		assertEquals(4.0 / 9, guesses.get(0).getProbability(), 1e-9);
+		Set<String> middle = new HashSet<String>(Arrays.asList(
+				guesses.get(1).getGuess(), guesses.get(2).getGuess()));
+		assertEquals(new HashSet<String>(Arrays.asList("T-AA D-AA-K", "K-AA D-AA-T")), middle);
+		assertEquals(2.0 / 9, guesses.get(1).getProbability(), 1e-9);
+		assertEquals(2.0 / 9, guesses.get(2).getProbability(), 1e-9);
+		assertEquals("K-AA D-AA-K", guesses.get(3).getGuess());
+		assertEquals(1.0 / 9, guesses.get(3).getProbability(), 1e-9);
+		
+		// the best guesses are the same however many are asked for
+		List<RankedGuess> best = guesser.guessBestPronunciationsOfTargetWord(word, 2);
+		assertEquals(2, best.size());
+		for (int i = 0; i < best.size(); i++) {
+			assertEquals(guesses.get(i).getGuess(), best.get(i).getGuess());
+		}
+	}
+	
+	@Test
+	public void testSyllablesOfDifferentLengths() {
+		Map<String, String> map = new HashMap<String, String>();
+		map.put("K-AE-T", "T-AE-T");
+		
+		SpecificRuleFormer rp = new SpecificRuleFormer(map);
+		RuleGeneralizer rg = new RuleGeneralizer(rp.getRules());
+		PronunciationGuesser guesser = new PronunciationGuesser(
+				rg.getGeneralizedRules(), rp.getPhonemeToSpecificRules());
+		
+		// AE-T-S and K-AE-T-S have the same phonemes around them
+		// (the first K being the phoneme after AE-T-S)
+		assertEquals("M AE-T-S T-AA", guesser.guessPronunciationOfTargetWord("M AE-T-S K-AA"));
+		assertEquals("S-AA T-AE-T-S M-AE", 
+				guesser.guessPronunciationOfTargetWord("S-AA K-AE-T-S M-AE"));
+	}
+	
+	@Test
+	public void testBufferedGuessesMatch() {
+		Map<String, String> map = new HashMap<String, String>();
+		map.put("K-AE-T", "T-AE-T");
+		map.put("B-AE-K", "B-AE-T");
+		map.put("D-EY", "D-EY");
+		
+		SpecificRuleFormer rp = new SpecificRuleFormer(map);
+		RuleGeneralizer rg = new RuleGeneralizer(rp.getRules());
+		PronunciationGuesser guesser = new PronunciationGuesser(
+				rg.getGeneralizedRules(), rp.getPhonemeToSpecificRules());
+		
+		String[] words = {"G-EY-M", "G-EY-G K-UH-M", "K-UH-K ", "K-UH-K-",
+				"S-T-R-IH-P", "B"};
+		StringBuilder sb = new StringBuilder();
+		for (String word : words) {
+			sb.setLength(0);
+			guesser.guessPronunciationOfTargetWord(word, sb);
+			assertEquals(guesser.guessPronunciationOfTargetWord(word), sb.toString());
+		}
+		
+		try {
+			guesser.guessPronunciationOfTargetWord("K-XX-T", sb);
+			fail("XX is not a phoneme");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testBatchGuesses() {
+		Map<String, String> map = new HashMap<String, String>();
+		map.put("K-AE-T", "T-AE-T");
+		map.put("B-AE-K", "B-AE-T");
+		map.put("D-EY", "D-EY");
+		
+		SpecificRuleFormer rp = new SpecificRuleFormer(map);
+		RuleGeneralizer rg = new RuleGeneralizer(rp.getRules());
+		PronunciationGuesser guesser = new PronunciationGuesser(
+				rg.getGeneralizedRules(), rp.getPhonemeToSpecificRules());
+		
+		// enough words to be split across tasks, with a bad one in the middle
+		String[] words = new String[1000];
+		for (int i = 0; i < words.length; i++) {
+			words[i] = i % 2 == 0 ? "G-EY-M" : "K-UH-K";
+		}
+		words[501] = "K-XX-T";
+		
+		GuessResult[] results = guesser.guessPronunciationsOfTargetWords(words);
+		assertEquals(words.length, results.length);
+		for (int i = 0; i < words.length; i++) {
+			assertEquals(words[i], results[i].getTarget());
+			if (i == 501) {
+				assertFalse(results[i].isGuessed());
+				assertNull(results[i].getGuess());
+			} else {
+				assertTrue(results[i].isGuessed());
+				assertEquals(guesser.guessPronunciationOfTargetWord(words[i]),
+						results[i].getGuess());
+			}
+		}
+	}
+
+	@Test
+	public void testBatchGuessesByPrefix() {
+		Map<String, String> map = new HashMap<String, String>();
+		map.put("P-L-EY", "P-W-EY");
+		map.put("S-T-AA-P", "S-D-AA-P");
+		map.put("K-R-AY", "K-W-AY");
+		map.put("S-L-IY-P", "S-W-IY-P");
+		
+		SpecificRuleFormer rp = new SpecificRuleFormer(map);
+		RuleGeneralizer rg = new RuleGeneralizer(rp.getRules());
+		PronunciationGuesser guesser = new PronunciationGuesser(
+				rg.getGeneralizedRules(), rp.getPhonemeToSpecificRules());
+		
+		// words that share starts, repeat, end where others go
+		// on, or have an empty syllable, lower case or invalid phoneme
+		String[] words = {"P-L-EY", "P-L-EY-D", "P-L-EY G-R-AW-N-D", "P-L-EY",
+				"S-T-AA-P", "S-T-AA-P-S", "S-T-AA P-IH-NG", "K-R-AY", "K-R-AY-D",
+				"K-R-AY -", "p-l-ey  d-ey", "K-R-XX", "S-L-IY-P", "S-L-IY P-IY"};
+		GuessResult[] expected = guesser.guessPronunciationsOfTargetWords(words);
+		GuessResult[] results = guesser.guessPronunciationsOfTargetWordsByPrefix(words);
+		assertEquals(words.length, results.length);
+		for (int i = 0; i < words.length; i++) {
+			assertEquals(words[i], results[i].getTarget());
+			assertEquals(expected[i].isGuessed(), results[i].isGuessed());
+			assertEquals(expected[i].getGuess(), results[i].getGuess());
+		}
+		assertFalse(results[10].isGuessed());
+		assertFalse(results[11].isGuessed());
+		
+		// the cache doesn't change how words are parsed
+		guesser.setGuessCache(null);
+		assertFalse(guesser.guessPronunciationsOfTargetWordsByPrefix(words)[10].isGuessed());
+	}
+	
+	@Test
+	public void testGuessFile() throws IOException {
+		Map<String, String> map = new HashMap<String, String>();
+		map.put("K-AE-T", "T-AE-T");
+		map.put("B-AE-K", "B-AE-T");
+		map.put("D-EY", "D-EY");
+		
+		SpecificRuleFormer rp = new SpecificRuleFormer(map);
+		RuleGeneralizer rg = new RuleGeneralizer(rp.getRules());
+		PronunciationGuesser guesser = new PronunciationGuesser(
+				rg.getGeneralizedRules(), rp.getPhonemeToSpecificRules());
+		
+		File input = File.createTempFile("targets", ".txt");
+		File output = File.createTempFile("guesses", ".txt");
+		try {
+			Files.write(input.toPath(), Arrays.asList(
+					"g-ey-m", "K-XX-T", "G-EY-G K-UH-M"));
+			assertEquals(1, guesser.guessPronunciationsOfFile(input, output));
+			
+			List<String> guesses = Files.readAllLines(output.toPath());
+			assertEquals(Arrays.asList("D-EY-M", "", "D-EY-D T-UH-M"), guesses);
+		} finally {
+			input.delete();
+			output.delete();
+		}
+	}
+
+	@Test
+	public void testSwapModel() {
+		Map<String, String> map = new HashMap<String, String>();
+		map.put("K-AE-T", "T-AE-T");
+		map.put("D-EY", "D-EY");
+		
+		SpecificRuleFormer rp = new SpecificRuleFormer(map);
+		RuleGeneralizer rg = new RuleGeneralizer(rp.getRules());
+		PronunciationGuesser guesser = new PronunciationGuesser(
+				rg.getGeneralizedRules(), rp.getPhonemeToSpecificRules());
+		GuessingModel first = guesser.getModel();
+		assertEquals("T-UH-M", guesser.guessPronunciationOfTargetWord("K-UH-M"));
+		
+		// retrain, and swap the new model in
+		map.put("K-AE-T", "K-AE-T");
+		rp = new SpecificRuleFormer(map);
+		rg = new RuleGeneralizer(rp.getRules());
+		assertSame(first, guesser.setModel(new GuessingModel(
+				rg.getGeneralizedRules(), rp.getPhonemeToSpecificRules())));
+		assertEquals("K-UH-M", guesser.guessPronunciationOfTargetWord("K-UH-M"));
+	}
 
 }
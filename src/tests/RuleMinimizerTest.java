@@ -0,0 +1,80 @@
+package tests;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import analysis.*;
+import enums.*;
+
+public class RuleMinimizerTest {
+
+	private static int countRules(Map<PHONEME, Set<SpecificRule>> phonemeToRules) {
+		int count = 0;
+		for (Set<SpecificRule> rules : phonemeToRules.values()) {
+			count += rules.size();
+		}
+		return count;
+	}
+
+	@Test
+	public void testRemovesSelfTransformingRules() {
+		Map<String, String> map = new HashMap<String, String>();
+		map.put("P-AA-T", "P-AA-T");
+		map.put("T-AA-P", "T-AA-P");
+		map.put("D-EY", "D-EY");
+
+		// nothing changes, so no rule is needed
+		SpecificRuleFormer rp = new SpecificRuleFormer(map);
+		RuleGeneralizer rg = new RuleGeneralizer(rp.getRules());
+		RuleMinimizer rm = new RuleMinimizer(rg.getGeneralizedRules(),
+				rp.getPhonemeToSpecificRules());
+
+		assertTrue(rm.getGeneralizedRules().isEmpty());
+		assertTrue(rm.getPhonemeToSpecificRules().isEmpty());
+		assertEquals(countRules(rp.getPhonemeToSpecificRules()), rm.getRemovedCount());
+	}
+
+	@Test
+	public void testGuessesMatch() {
+		Map<String, String> map = new HashMap<String, String>();
+		map.put("D-UH-K", "D-UH-K");
+		map.put("P-IH-G", "P-IH-K");
+		map.put("P-IH G-IY", "P-IH G-IY");
+		map.put("D-AO-G", "D-AO-K");
+		map.put("D-AO G-IY", "D-AO G-IY");
+		map.put("R-UH-B", "W-UH-P");
+		map.put("R-UH B-IH-NG", "W-UH B-IH-NG");
+		map.put("S-L-IY-P", "S-W-IY-P");
+		map.put("K-AE-T", "T-AE-T");
+
+		SpecificRuleFormer rp = new SpecificRuleFormer(map);
+		RuleGeneralizer rg = new RuleGeneralizer(rp.getRules());
+		RuleMinimizer rm = new RuleMinimizer(rg.getGeneralizedRules(),
+				rp.getPhonemeToSpecificRules());
+		assertTrue(rm.getRemovedCount() > 0);
+		assertEquals(rg.getGeneralizedRules().size()
+				+ countRules(rp.getPhonemeToSpecificRules()),
+				rm.getGeneralizedRules().size()
+				+ countRules(rm.getPhonemeToSpecificRules())
+				+ rm.getRemovedCount());
+
+		PredictionTable full = new GuessingModel(rg.getGeneralizedRules(),
+				rp.getPhonemeToSpecificRules()).compile();
+		PredictionTable minimized = new GuessingModel(rm.getGeneralizedRules(),
+				rm.getPhonemeToSpecificRules()).compile();
+		for (PHONEME p : PHONEME.values()) {
+			if (p.isVowel()) {
+				continue;
+			}
+			for (int contextId = 0; contextId < PhoneticContext.CONTEXT_COUNT; contextId++) {
+				assertEquals(full.getGuess(p, contextId), minimized.getGuess(p, contextId));
+			}
+		}
+	}
+
+}
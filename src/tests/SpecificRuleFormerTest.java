@@ -1,11 +1,19 @@
 package tests;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import analysis.*;
+import helpers.Helpers;
 import static org.junit.Assert.*;
 
 import org.junit.Test;
@@ -132,22 +140,24 @@ public class SpecificRuleFormerTest {
 		expectedRules = new HashSet<SpecificRule>();
 		// S → S always, except at the beginning of a word/beginning of a 
 		// syllable/before a vowel
-		e = new PhoneticEnvironment(true);
-		e.removeWordPlacement(CONSONANT_POSITION.BEGINNING);
-		e.removeSyllablePlacement(CONSONANT_POSITION.BEGINNING);
-		e.removeVowelPlacement(VOWEL_POSITION.BEFORE);
+		e = new PhoneticEnvironment.Builder(true)
+				.removeWordPlacement(CONSONANT_POSITION.BEGINNING)
+				.removeSyllablePlacement(CONSONANT_POSITION.BEGINNING)
+				.removeVowelPlacement(VOWEL_POSITION.BEFORE)
+				.build();
 		newRule = 
 				new SpecificRule(e, PHONEME.S, PHONEME.S);
 		expectedRules.add(newRule);
 
 		// S → TH at the beginning of a word/beginning of a 
 		// syllable/before a vowel/after everything/before everything
-		e = new PhoneticEnvironment(false);
-		e.addWordPlacement(CONSONANT_POSITION.BEGINNING);
-		e.addSyllablePlacement(CONSONANT_POSITION.BEGINNING);
-		e.addVowelPlacement(VOWEL_POSITION.BEFORE);
-		e.makeComesAfterGlobal();
-		e.makeComesBeforeGlobal();
+		e = new PhoneticEnvironment.Builder(false)
+				.addWordPlacement(CONSONANT_POSITION.BEGINNING)
+				.addSyllablePlacement(CONSONANT_POSITION.BEGINNING)
+				.addVowelPlacement(VOWEL_POSITION.BEFORE)
+				.makeComesAfterGlobal()
+				.makeComesBeforeGlobal()
+				.build();
 		newRule = 
 				new SpecificRule(e, PHONEME.S, PHONEME.TH);
 		expectedRules.add(newRule);
@@ -164,11 +174,12 @@ public class SpecificRuleFormerTest {
 			
 			expectedRules = new HashSet<SpecificRule>();
 
-			e = new PhoneticEnvironment(true);
-			e.removeWordPlacement(CONSONANT_POSITION.MIDDLE);
-			e.removeSyllablePlacement(CONSONANT_POSITION.MIDDLE);
-			e.removeVowelPlacement(VOWEL_POSITION.AFTER);
-			e.removeComesBeforePhoneme(PHONEME.T);
+			e = new PhoneticEnvironment.Builder(true)
+					.removeWordPlacement(CONSONANT_POSITION.MIDDLE)
+					.removeSyllablePlacement(CONSONANT_POSITION.MIDDLE)
+					.removeVowelPlacement(VOWEL_POSITION.AFTER)
+					.removeComesBeforePhoneme(PHONEME.T)
+					.build();
 			newRule = 
 					new SpecificRule(e, PHONEME.S, PHONEME.TH);
 			expectedRules.add(newRule);
@@ -195,22 +206,24 @@ public class SpecificRuleFormerTest {
 		
 		// Z → DH at the beginning of the word/beginning 
 		// of a syllable/before a vowel/after everything/before everything
-		e = new PhoneticEnvironment(false);
-		e.addWordPlacement(CONSONANT_POSITION.BEGINNING);
-		e.addSyllablePlacement(CONSONANT_POSITION.BEGINNING);
-		e.addVowelPlacement(VOWEL_POSITION.BEFORE);
-		e.makeComesAfterGlobal();
-		e.makeComesBeforeGlobal();
+		e = new PhoneticEnvironment.Builder(false)
+				.addWordPlacement(CONSONANT_POSITION.BEGINNING)
+				.addSyllablePlacement(CONSONANT_POSITION.BEGINNING)
+				.addVowelPlacement(VOWEL_POSITION.BEFORE)
+				.makeComesAfterGlobal()
+				.makeComesBeforeGlobal()
+				.build();
 		newRule = 
 				new SpecificRule(e, PHONEME.Z, PHONEME.DH);
 		expectedRules.add(newRule);
 		
 		// Z → Z always, except at the beginning of the
 		// word/beginning of a syllable/before a vowel
-		e = new PhoneticEnvironment(true);
-		e.removeWordPlacement(CONSONANT_POSITION.BEGINNING);
-		e.removeSyllablePlacement(CONSONANT_POSITION.BEGINNING);
-		e.removeVowelPlacement(VOWEL_POSITION.BEFORE);
+		e = new PhoneticEnvironment.Builder(true)
+				.removeWordPlacement(CONSONANT_POSITION.BEGINNING)
+				.removeSyllablePlacement(CONSONANT_POSITION.BEGINNING)
+				.removeVowelPlacement(VOWEL_POSITION.BEFORE)
+				.build();
 		newRule = 
 				new SpecificRule(e, PHONEME.Z, PHONEME.Z);
 		expectedRules.add(newRule);
@@ -227,10 +240,11 @@ public class SpecificRuleFormerTest {
 
 			expectedRules = new HashSet<SpecificRule>();
 
-			e = new PhoneticEnvironment(true);
-			e.removeWordPlacement(CONSONANT_POSITION.END);
-			e.removeSyllablePlacement(CONSONANT_POSITION.END);
-			e.removeVowelPlacement(VOWEL_POSITION.AFTER);
+			e = new PhoneticEnvironment.Builder(true)
+					.removeWordPlacement(CONSONANT_POSITION.END)
+					.removeSyllablePlacement(CONSONANT_POSITION.END)
+					.removeVowelPlacement(VOWEL_POSITION.AFTER)
+					.build();
 			newRule = 
 					new SpecificRule(e, PHONEME.Z, PHONEME.DH);
 			expectedRules.add(newRule);
@@ -331,22 +345,24 @@ public class SpecificRuleFormerTest {
 		expectedRules = new HashSet<SpecificRule>();
 		// G → G always, except at the end of a word/end of 
 		// a syllable/after vowel
-		e = new PhoneticEnvironment(true);
-		e.removeWordPlacement(CONSONANT_POSITION.END);
-		e.removeSyllablePlacement(CONSONANT_POSITION.END);
-		e.removeVowelPlacement(VOWEL_POSITION.AFTER);
+		e = new PhoneticEnvironment.Builder(true)
+				.removeWordPlacement(CONSONANT_POSITION.END)
+				.removeSyllablePlacement(CONSONANT_POSITION.END)
+				.removeVowelPlacement(VOWEL_POSITION.AFTER)
+				.build();
 		newRule = 
 				new SpecificRule(e, PHONEME.G, PHONEME.G);
 		expectedRules.add(newRule);
 
 		// G → K at the end of a word/end of a syllable/after vowel/after anything
 		// /before anything
-		e = new PhoneticEnvironment(false);
-		e.setWordPlacement(CONSONANT_POSITION.END);
-		e.setSyllablePlacement(CONSONANT_POSITION.END);
-		e.setVowelPlacement(VOWEL_POSITION.AFTER);
-		e.makeComesAfterGlobal();
-		e.makeComesBeforeGlobal();
+		e = new PhoneticEnvironment.Builder(false)
+				.setWordPlacement(CONSONANT_POSITION.END)
+				.setSyllablePlacement(CONSONANT_POSITION.END)
+				.setVowelPlacement(VOWEL_POSITION.AFTER)
+				.makeComesAfterGlobal()
+				.makeComesBeforeGlobal()
+				.build();
 		newRule = 
 				new SpecificRule(e, PHONEME.G, PHONEME.K);
 		expectedRules.add(newRule);
@@ -363,10 +379,11 @@ public class SpecificRuleFormerTest {
 			
 			expectedRules = new HashSet<SpecificRule>();
 
-			e = new PhoneticEnvironment(true);
-			e.removeWordPlacement(CONSONANT_POSITION.MIDDLE);
-			e.removeSyllablePlacement(CONSONANT_POSITION.BEGINNING);
-			e.removeVowelPlacement(VOWEL_POSITION.SURROUNDED_BY);
+			e = new PhoneticEnvironment.Builder(true)
+					.removeWordPlacement(CONSONANT_POSITION.MIDDLE)
+					.removeSyllablePlacement(CONSONANT_POSITION.BEGINNING)
+					.removeVowelPlacement(VOWEL_POSITION.SURROUNDED_BY)
+					.build();
 			newRule = 
 					new SpecificRule(e, PHONEME.G, PHONEME.K);
 			expectedRules.add(newRule);
@@ -395,22 +412,24 @@ public class SpecificRuleFormerTest {
 		
 		//  B → B always, except at the end of a word/at the end
 		//  of a syllable/after vowel
-		e = new PhoneticEnvironment(true);
-		e.removeWordPlacement(CONSONANT_POSITION.END);
-		e.removeSyllablePlacement(CONSONANT_POSITION.END);
-		e.removeVowelPlacement(VOWEL_POSITION.AFTER);
+		e = new PhoneticEnvironment.Builder(true)
+				.removeWordPlacement(CONSONANT_POSITION.END)
+				.removeSyllablePlacement(CONSONANT_POSITION.END)
+				.removeVowelPlacement(VOWEL_POSITION.AFTER)
+				.build();
 		newRule = 
 				new SpecificRule(e, PHONEME.B, PHONEME.B);
 		expectedRules.add(newRule);
 		
 		// B → P at the end of a word/at the end of a syllable/after vowel
 		// /after anything/before anything
-		e = new PhoneticEnvironment(false);
-		e.addWordPlacement(CONSONANT_POSITION.END);
-		e.addSyllablePlacement(CONSONANT_POSITION.END);
-		e.addVowelPlacement(VOWEL_POSITION.AFTER);
-		e.makeComesAfterGlobal();
-		e.makeComesBeforeGlobal();
+		e = new PhoneticEnvironment.Builder(false)
+				.addWordPlacement(CONSONANT_POSITION.END)
+				.addSyllablePlacement(CONSONANT_POSITION.END)
+				.addVowelPlacement(VOWEL_POSITION.AFTER)
+				.makeComesAfterGlobal()
+				.makeComesBeforeGlobal()
+				.build();
 		newRule = 
 				new SpecificRule(e, PHONEME.B, PHONEME.P);
 		expectedRules.add(newRule);
@@ -427,10 +446,11 @@ public class SpecificRuleFormerTest {
 
 			expectedRules = new HashSet<SpecificRule>();
 
-			e = new PhoneticEnvironment(true);
-			e.removeWordPlacement(CONSONANT_POSITION.MIDDLE);
-			e.removeSyllablePlacement(CONSONANT_POSITION.BEGINNING);
-			e.removeVowelPlacement(VOWEL_POSITION.SURROUNDED_BY);
+			e = new PhoneticEnvironment.Builder(true)
+					.removeWordPlacement(CONSONANT_POSITION.MIDDLE)
+					.removeSyllablePlacement(CONSONANT_POSITION.BEGINNING)
+					.removeVowelPlacement(VOWEL_POSITION.SURROUNDED_BY)
+					.build();
 			newRule = 
 					new SpecificRule(e, PHONEME.B, PHONEME.P);
 			expectedRules.add(newRule);
@@ -510,4 +530,169 @@ public class SpecificRuleFormerTest {
 			assertTrue(rp.getRules().containsAll(expectedRules));
 	}
 	
+	@Test
+	public void testAddObservation() {
+		Map<String, String> map = new LinkedHashMap<String, String>();
+		map.put("P-AA-T", "P-AA-T");
+		map.put("T-AA-P", "T-AA-P");
+		map.put("K-AE-T", "T-AE-T");
+		map.put("B-AE-K", "B-AE-T");
+		SpecificRuleFormer rp = new SpecificRuleFormer(map);
+		
+		RuleChanges changes = rp.addObservation("K-OW", "K-OW");
+		assertEquals(EnumSet.of(PHONEME.K), changes.getChangedPhonemes());
+		assertFalse(changes.getAddedRules().isEmpty());
+		assertEquals("K-OW", rp.getInputtedData().get("K-OW"));
+		changes = rp.addObservation("D-EY", "D-EY");
+		assertEquals(EnumSet.of(PHONEME.D), changes.getChangedPhonemes());
+		assertTrue(changes.getRemovedRules().isEmpty());
+		
+		// the same rules as training on everything at once
+		map.put("K-OW", "K-OW");
+		map.put("D-EY", "D-EY");
+		SpecificRuleFormer all = new SpecificRuleFormer(map);
+		assertSameRulesAndSupport(all.getPhonemeToSpecificRules(),
+				rp.getPhonemeToSpecificRules());
+		
+		// seeing the same thing again only adds support
+		changes = rp.addObservation("D-EY", "D-EY");
+		assertEquals(1, changes.getRemovedRules().size());
+		assertEquals(changes.getRemovedRules(), changes.getAddedRules());
+		assertEquals(2, changes.getAddedRules().iterator().next().getSupport());
+	}
+	
+	@Test
+	public void testParallelFormation() {
+		Map<String, String> map = new LinkedHashMap<String, String>();
+		map.put("L-AE D-AXR", "L-AE D-AXR");
+		map.put("R-IH-NG", "W-IH-NG");
+		map.put("JH-AX R-AE-F", "JH-AX W-AE-F");
+		map.put("S-T-AO_R", "S-T-AO_R");
+		map.put("K-AE-T", "T-AE-T");
+		map.put("B-AE-K", "B-AE-T");
+		map.put("K-IY", "K-IY");
+		map.put("R-EH-D", "R-EH-D");
+		
+		SpecificRuleFormer sequential = new SpecificRuleFormer(map);
+		SpecificRuleFormer parallel = new SpecificRuleFormer(map, true);
+		assertSameRulesAndSupport(sequential.getPhonemeToSpecificRules(),
+				parallel.getPhonemeToSpecificRules());
+	}
+	
+	@Test
+	public void testObservationCube() {
+		Map<String, String> map = new LinkedHashMap<String, String>();
+		map.put("P-AA-T", "P-AA-T");
+		map.put("T-AA-P", "T-AA-P");
+		map.put("K-AE-T", "T-AE-T");
+		map.put("B-AE-K", "B-AE-T");
+		map.put("K-OW", "K-OW");
+		map.put("K-AA R-T", "T-AA W-T");
+		map.put("R-EH-D", "W-EH-D");
+		ObservationCube cube = new ObservationCube(map);
+		
+		assertEquals(14, cube.getObservationCount());
+		assertEquals(3, cube.getCount(PHONEME.K, PHONEME.T));
+		assertEquals(1, cube.getCount(PHONEME.K, PHONEME.K));
+		assertEquals(2, cube.getCount(PHONEME.R, PHONEME.W));
+		assertEquals(0, cube.getCount(PHONEME.P, PHONEME.B));
+		// the Ks of K-AE-T and K-AA R-T are in the same context
+		int contextId = PhoneticContext.getContextIds(
+				Helpers.convertStringToPhonemeSequence("K-OW"))[0];
+		assertEquals(1, cube.getCount(PHONEME.K, PHONEME.K, contextId));
+		assertEquals(2, cube.getCount(PHONEME.K, PHONEME.T, contextId));
+		
+		// the same rules and support as forming them one at a time
+		SpecificRuleFormer rp = new SpecificRuleFormer(map);
+		assertSameRulesAndSupport(rp.getPhonemeToSpecificRules(),
+				cube.getPhonemeToSpecificRules());
+		
+		// and after more observations
+		rp.addObservation("G-OW", "D-OW");
+		cube.addObservation("G-OW", "D-OW");
+		assertSameRulesAndSupport(rp.getPhonemeToSpecificRules(),
+				cube.getPhonemeToSpecificRules());
+	}
+	
+	@Test
+	public void testTrainFromFile() throws IOException {
+		Map<String, String> map = new LinkedHashMap<String, String>();
+		map.put("L-AE D-AXR", "L-AE D-AXR");
+		map.put("R-IH-NG", "W-IH-NG");
+		map.put("JH-AX R-AE-F", "JH-AX W-AE-F");
+		map.put("S-T-AO_R", "S-T-AO_R");
+		map.put("K-AE-T", "T-AE-T");
+		map.put("B-AE-K", "B-AE-T");
+		List<String> lines = new ArrayList<String>();
+		for (Map.Entry<String, String> e : map.entrySet()) {
+			lines.add(e.getKey());
+			lines.add(e.getValue());
+		}
+		
+		File file = File.createTempFile("training", ".txt");
+		try {
+			Files.write(file.toPath(), lines);
+			SpecificRuleFormer fromFile = new SpecificRuleFormer(file);
+			assertEquals(map, fromFile.getInputtedData());
+			assertSameRulesAndSupport(new SpecificRuleFormer(map).getPhonemeToSpecificRules(),
+					fromFile.getPhonemeToSpecificRules());
+			assertSameRulesAndSupport(fromFile.getPhonemeToSpecificRules(),
+					new SpecificRuleFormer(file, true).getPhonemeToSpecificRules());
+			
+			// without keeping the lexicon, the same rules
+			for (boolean parallel : new boolean[] {false, true}) {
+				SpecificRuleFormer streamed = new SpecificRuleFormer(file, parallel, false);
+				assertTrue(streamed.getInputtedData().isEmpty());
+				assertSameRulesAndSupport(fromFile.getPhonemeToSpecificRules(),
+						streamed.getPhonemeToSpecificRules());
+			}
+			
+			// a target given twice is trained on both times, though
+			// only the last pronunciation is inputted data
+			lines.add("K-AE-T");
+			lines.add("K-AE-T");
+			Files.write(file.toPath(), lines);
+			SpecificRuleFormer twice = new SpecificRuleFormer(file);
+			SpecificRuleFormer expected = new SpecificRuleFormer(map);
+			expected.addObservation("K-AE-T", "K-AE-T");
+			assertSameRulesAndSupport(expected.getPhonemeToSpecificRules(),
+					twice.getPhonemeToSpecificRules());
+			assertEquals(map.size(), twice.getInputtedData().size());
+			assertEquals("K-AE-T", twice.getInputtedData().get("K-AE-T"));
+			
+			// a target without a pronunciation
+			lines.add("D-EY");
+			Files.write(file.toPath(), lines);
+			try {
+				new SpecificRuleFormer(file);
+				fail();
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		} finally {
+			file.delete();
+		}
+	}
+	
+	/**
+	 * Assert each phoneme has the same rules, each with the same support
+	 * (rules are equal whatever their support)
+	 */
+	private static void assertSameRulesAndSupport(Map<PHONEME, Set<SpecificRule>> expected,
+			Map<PHONEME, Set<SpecificRule>> actual) {
+		assertEquals(expected, actual);
+		// a rule's target is part of it, so no two phonemes share one
+		Map<SpecificRule, SpecificRule> actualRules = new HashMap<SpecificRule, SpecificRule>();
+		for (Set<SpecificRule> rules : actual.values()) {
+			for (SpecificRule r : rules) {
+				actualRules.put(r, r);
+			}
+		}
+		for (Set<SpecificRule> rules : expected.values()) {
+			for (SpecificRule r : rules) {
+				assertEquals(r.toString(), r.getSupport(), actualRules.get(r).getSupport());
+			}
+		}
+	}
+	
 }